@@ -0,0 +1,451 @@
+package io.github.kalmemarq.bso;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+// Block-framed compression: the document is cut into fixed-size blocks that are compressed independently,
+// so both directions can run on an executor. Each frame is [i32 raw length][i32 stored length][data],
+// the frames end with a raw length of 0, and a frame whose stored length equals its raw length is stored uncompressed.
+// A trailing index of [i64 frame offset][i64 raw offset] per block, then [i64 raw size][i32 block count][i32 magic],
+// lets a reader seek to any uncompressed offset and inflate only the blocks it touches.
+final class BlockCompression {
+    static final int FRAMED = 0x80;
+    static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    static final int MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+    private static final int INDEX_MAGIC = 0x42534F49; // BSOI
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final int INDEX_FOOTER_SIZE = 16;
+    private static final int MAX_PENDING_BLOCKS = Math.max(2, Runtime.getRuntime().availableProcessors() + 1);
+    private static final int CACHED_BLOCKS = 4;
+
+    private BlockCompression() {
+    }
+
+    static byte[] compressBlock(BsoCodec codec, int level, byte[] block, int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + length / 2);
+        bytes.write(new byte[8]);
+        try (OutputStream out = codec.compress(bytes, level)) {
+            out.write(block, 0, length);
+        }
+
+        byte[] frame;
+        int stored = bytes.size() - 8;
+        if (stored >= length) {
+            frame = new byte[8 + length];
+            System.arraycopy(block, 0, frame, 8, length);
+            stored = length;
+        } else {
+            frame = bytes.toByteArray();
+        }
+        writeInt(frame, 0, length);
+        writeInt(frame, 4, stored);
+        return frame;
+    }
+
+    static byte[] decompressBlock(BsoCodec codec, byte[] stored, int raw) throws IOException {
+        if (stored.length == raw) {
+            return stored;
+        }
+
+        try (InputStream in = codec.decompress(new ByteArrayInputStream(stored))) {
+            byte[] block = in.readNBytes(raw);
+            if (block.length != raw || in.read() >= 0) {
+                throw new IOException("Compressed block does not match its raw length " + raw);
+            }
+            return block;
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) throw io.getCause();
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static <T> CompletableFuture<T> submit(IOTask<T> task, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    private static void writeInt(byte[] b, int off, int value) {
+        b[off] = (byte) (value >>> 24);
+        b[off + 1] = (byte) (value >>> 16);
+        b[off + 2] = (byte) (value >>> 8);
+        b[off + 3] = (byte) value;
+    }
+
+    private static void writeLong(byte[] b, int off, long value) {
+        writeInt(b, off, (int) (value >>> 32));
+        writeInt(b, off + 4, (int) value);
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xFF) << 24 | (b[off + 1] & 0xFF) << 16 | (b[off + 2] & 0xFF) << 8 | b[off + 3] & 0xFF;
+    }
+
+    private static long readLong(byte[] b, int off) {
+        return (long) readInt(b, off) << 32 | readInt(b, off + 4) & 0xFFFFFFFFL;
+    }
+
+    private interface IOTask<T> {
+        T run() throws IOException;
+    }
+
+    static final class BlockOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final BsoCodec codec;
+        private final int level;
+        private final Executor executor;
+        private final int blockSize;
+        private final ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+        private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        private final byte[] entry = new byte[INDEX_ENTRY_SIZE];
+        private long written;
+        private long rawWritten;
+        private byte[] block;
+        private int length;
+        private boolean closed;
+
+        BlockOutputStream(OutputStream out, BsoCodec codec, int level, Executor executor, int blockSize) {
+            this.out = out;
+            this.codec = codec;
+            this.level = level;
+            this.executor = executor != null ? executor : Runnable::run;
+            this.blockSize = blockSize;
+            this.block = new byte[blockSize];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (this.length == this.blockSize) this.submitBlock();
+            this.block[this.length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (this.length == this.blockSize) this.submitBlock();
+                int n = Math.min(len, this.blockSize - this.length);
+                System.arraycopy(b, off, this.block, this.length, n);
+                this.length += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void submitBlock() throws IOException {
+            if (this.length == 0) return;
+
+            byte[] data = this.block;
+            int n = this.length;
+            this.pending.add(submit(() -> compressBlock(this.codec, this.level, data, n), this.executor));
+            this.block = new byte[this.blockSize];
+            this.length = 0;
+
+            while (this.pending.size() >= MAX_PENDING_BLOCKS) {
+                this.writeFrame(await(this.pending.poll()));
+            }
+        }
+
+        private void drain() throws IOException {
+            while (!this.pending.isEmpty()) {
+                this.writeFrame(await(this.pending.poll()));
+            }
+        }
+
+        private void writeFrame(byte[] frame) throws IOException {
+            writeLong(this.entry, 0, this.written);
+            writeLong(this.entry, 8, this.rawWritten);
+            this.index.write(this.entry);
+
+            this.out.write(frame);
+            this.written += frame.length;
+            this.rawWritten += readInt(frame, 0);
+        }
+
+        private void writeIndex() throws IOException {
+            byte[] footer = new byte[INDEX_FOOTER_SIZE];
+            writeLong(footer, 0, this.rawWritten);
+            writeInt(footer, 8, this.index.size() / INDEX_ENTRY_SIZE);
+            writeInt(footer, 12, INDEX_MAGIC);
+
+            this.index.writeTo(this.out);
+            this.out.write(footer);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.submitBlock();
+            this.drain();
+            this.out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed) return;
+            this.closed = true;
+            try {
+                this.submitBlock();
+                this.drain();
+                this.out.write(new byte[4]);
+                this.writeIndex();
+            } finally {
+                this.pending.forEach(future -> future.cancel(false));
+                this.out.close();
+            }
+        }
+    }
+
+    static final class BlockInputStream extends InputStream {
+        private final InputStream in;
+        private final BsoCodec codec;
+        private final Executor executor;
+        private final ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+        private final byte[] header = new byte[8];
+        private byte[] block = new byte[0];
+        private int position;
+        private boolean finished;
+
+        BlockInputStream(InputStream in, BsoCodec codec, Executor executor) {
+            this.in = in;
+            this.codec = codec;
+            this.executor = executor != null ? executor : Runnable::run;
+        }
+
+        private boolean nextBlock() throws IOException {
+            while (!this.finished && this.pending.size() < MAX_PENDING_BLOCKS) {
+                this.readFrame();
+            }
+            if (this.pending.isEmpty()) return false;
+
+            this.block = await(this.pending.poll());
+            this.position = 0;
+            return true;
+        }
+
+        private void readFrame() throws IOException {
+            this.readFully(this.header, 0, 4);
+            int raw = readInt(this.header, 0);
+            if (raw == 0) {
+                this.finished = true;
+                return;
+            }
+
+            this.readFully(this.header, 4, 4);
+            int stored = readInt(this.header, 4);
+            if (raw < 0 || raw > MAX_BLOCK_SIZE || stored < 0 || stored > raw) {
+                throw new IOException("Corrupt compressed block header");
+            }
+
+            byte[] data = new byte[stored];
+            this.readFully(data, 0, stored);
+            this.pending.add(submit(() -> decompressBlock(this.codec, data, raw), this.executor));
+        }
+
+        private void readFully(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = this.in.read(b, off, len);
+                if (n < 0) throw new EOFException("Truncated compressed block stream");
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.position == this.block.length && !this.nextBlock()) return -1;
+            return this.block[this.position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (this.position == this.block.length && !this.nextBlock()) return -1;
+
+            int n = Math.min(len, this.block.length - this.position);
+            System.arraycopy(this.block, this.position, b, off, n);
+            this.position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return this.block.length - this.position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.pending.forEach(future -> future.cancel(false));
+            this.pending.clear();
+            this.in.close();
+        }
+    }
+
+    // Read-only view of the uncompressed bytes of an indexed block stream, inflating blocks on demand
+    static final class SeekableBlockChannel implements SeekableByteChannel {
+        private final FileChannel file;
+        private final BsoCodec codec;
+        private final long base;
+        private final long[] framePositions;
+        private final long[] rawOffsets;
+        private final long size;
+        private final Map<Integer, byte[]> cache = new LinkedHashMap<>(CACHED_BLOCKS * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                return this.size() > CACHED_BLOCKS;
+            }
+        };
+        private long position;
+        private int blocksRead;
+
+        private SeekableBlockChannel(FileChannel file, BsoCodec codec, long base, long[] framePositions, long[] rawOffsets, long size) {
+            this.file = file;
+            this.codec = codec;
+            this.base = base;
+            this.framePositions = framePositions;
+            this.rawOffsets = rawOffsets;
+            this.size = size;
+        }
+
+        // Returns null when the frames starting at base carry no index
+        static SeekableBlockChannel open(FileChannel file, long base, BsoCodec codec) throws IOException {
+            long end = file.size();
+            if (end - base < 4 + INDEX_FOOTER_SIZE) return null;
+
+            byte[] footer = readAt(file, end - INDEX_FOOTER_SIZE, INDEX_FOOTER_SIZE);
+            if (readInt(footer, 12) != INDEX_MAGIC) return null;
+
+            long size = readLong(footer, 0);
+            int count = readInt(footer, 8);
+            long indexSize = (long) count * INDEX_ENTRY_SIZE;
+            long indexStart = end - INDEX_FOOTER_SIZE - indexSize;
+            if (size < 0 || count < 0 || (count == 0) != (size == 0) || indexSize > Integer.MAX_VALUE || indexStart < base + 4) {
+                throw new IOException("Corrupt compressed block index");
+            }
+
+            byte[] index = readAt(file, indexStart, (int) indexSize);
+            long[] framePositions = new long[count];
+            long[] rawOffsets = new long[count];
+            for (int i = 0; i < count; ++i) {
+                framePositions[i] = readLong(index, i * INDEX_ENTRY_SIZE);
+                rawOffsets[i] = readLong(index, i * INDEX_ENTRY_SIZE + 8);
+                // the first block starts the document, the rest follow in order, and every frame lies before the index
+                if (i == 0 ? rawOffsets[i] != 0 : rawOffsets[i] <= rawOffsets[i - 1] || rawOffsets[i] >= size) {
+                    throw new IOException("Corrupt compressed block index");
+                }
+                if (framePositions[i] < 0 || framePositions[i] >= indexStart - base || i > 0 && framePositions[i] <= framePositions[i - 1]) {
+                    throw new IOException("Corrupt compressed block index");
+                }
+            }
+            return new SeekableBlockChannel(file, codec, base, framePositions, rawOffsets, size);
+        }
+
+        private static byte[] readAt(FileChannel file, long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (file.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Truncated compressed block stream");
+                }
+            }
+            return buffer.array();
+        }
+
+        private byte[] block(int i) throws IOException {
+            byte[] block = this.cache.get(i);
+            if (block != null) return block;
+
+            long end = i + 1 < this.rawOffsets.length ? this.rawOffsets[i + 1] : this.size;
+            byte[] header = readAt(this.file, this.base + this.framePositions[i], 8);
+            int raw = readInt(header, 0);
+            int stored = readInt(header, 4);
+            if (raw != end - this.rawOffsets[i] || raw > MAX_BLOCK_SIZE || stored < 0 || stored > raw) {
+                throw new IOException("Corrupt compressed block header");
+            }
+
+            block = decompressBlock(this.codec, readAt(this.file, this.base + this.framePositions[i] + 8, stored), raw);
+            ++this.blocksRead;
+            this.cache.put(i, block);
+            return block;
+        }
+
+        int blocksRead() {
+            return this.blocksRead;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (this.position >= this.size) return -1;
+
+            int i = Arrays.binarySearch(this.rawOffsets, this.position);
+            if (i < 0) i = -i - 2;
+            byte[] block = this.block(i);
+            int offset = (int) (this.position - this.rawOffsets[i]);
+            int n = Math.min(dst.remaining(), block.length - offset);
+            dst.put(block, offset, n);
+            this.position += n;
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() {
+            return this.position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) {
+            if (newPosition < 0) throw new IllegalArgumentException("Negative position " + newPosition);
+            this.position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return this.size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.file.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.file.close();
+        }
+    }
+}
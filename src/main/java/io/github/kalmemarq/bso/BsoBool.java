@@ -8,6 +8,11 @@ public record BsoBool(boolean value) implements BsoPrimitive {
         return value ? TRUE : FALSE;
     }
 
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.BOOL;
+    }
+
     @Override
     public Number asNumber(Number defaultValue) {
         return this.value ? 1 : 0;
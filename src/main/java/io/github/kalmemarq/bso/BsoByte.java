@@ -1,6 +1,24 @@
 package io.github.kalmemarq.bso;
 
 public record BsoByte(byte value) implements BsoPrimitive {
+    private static final BsoByte[] CACHE = new BsoByte[256];
+
+    static {
+        for (int i = 0; i < CACHE.length; ++i) {
+            CACHE[i] = new BsoByte((byte) (i - 128));
+        }
+    }
+
+    // Every value is cached, like Byte.valueOf
+    public static BsoByte of(byte value) {
+        return CACHE[value + 128];
+    }
+
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.BYTE;
+    }
+
     @Override
     public Number asNumber(Number defaultValue) {
         return this.value;
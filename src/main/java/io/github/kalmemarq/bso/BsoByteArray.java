@@ -3,6 +3,11 @@ package io.github.kalmemarq.bso;
 import java.util.Arrays;
 
 public record BsoByteArray(byte[] values) implements BsoNode {
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.BYTE_ARRAY;
+    }
+
     @Override
     public byte[] asByteArray(byte[] values) {
         return this.values;
@@ -17,4 +22,9 @@ public record BsoByteArray(byte[] values) implements BsoNode {
     public BsoNode copy() {
         return new BsoByteArray(Arrays.copyOf(this.values, this.values.length));
     }
+
+    @Override
+    public BsoNode freeze() {
+        return this.copy();
+    }
 }
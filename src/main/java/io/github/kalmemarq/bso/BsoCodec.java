@@ -0,0 +1,26 @@
+package io.github.kalmemarq.bso;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public interface BsoCodec {
+    // gzip streams start with 0x1F, so gzip documents carry no separate codec id byte
+    int GZIP_ID = 0x1F;
+
+    BsoCodec GZIP = new GzipCodec();
+    BsoCodec DEFLATE = new DeflateCodec();
+    BsoCodec LZ = new LzCodec();
+
+    int getId();
+
+    String getName();
+
+    default int getDefaultLevel() {
+        return -1;
+    }
+
+    OutputStream compress(OutputStream out, int level) throws IOException;
+
+    InputStream decompress(InputStream in) throws IOException;
+}
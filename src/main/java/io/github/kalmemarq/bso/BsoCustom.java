@@ -2,9 +2,17 @@ package io.github.kalmemarq.bso;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 
 public record BsoCustom<T>(BsoCustomType<T> type, T value) implements BsoNode {
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.CUSTOM;
+    }
+
     @SuppressWarnings("unchecked")
     public BsoCustom(T value) {
         this((BsoCustomType<T>) getCustomTypeForValueClazz(value.getClass()), value);
@@ -33,6 +41,16 @@ public record BsoCustom<T>(BsoCustomType<T> type, T value) implements BsoNode {
         BsoCustom<T> read(DataInput in, int ad) throws IOException;
         void write(DataOutput out, BsoCustom<T> node) throws IOException;
 
+        default int getSize(BsoCustom<T> node) {
+            DataOutputStream out = new DataOutputStream(OutputStream.nullOutputStream());
+            try {
+                this.write(out, node);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.size();
+        }
+
         String getName();
         BsoCustom<T> parse(SBsoReader reader) throws IOException;
         String write(BsoCustom<T> node);
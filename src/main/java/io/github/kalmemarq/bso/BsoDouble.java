@@ -1,6 +1,11 @@
 package io.github.kalmemarq.bso;
 
 public record BsoDouble(double value) implements BsoPrimitive {
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.DOUBLE;
+    }
+
     @Override
     public Number asNumber(Number defaultValue) {
         return this.value;
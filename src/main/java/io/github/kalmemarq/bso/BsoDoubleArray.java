@@ -3,13 +3,28 @@ package io.github.kalmemarq.bso;
 import java.util.Arrays;
 
 public record BsoDoubleArray(double[] values) implements BsoNode {
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.DOUBLE_ARRAY;
+    }
+
     @Override
     public double[] asDoubleArray(double[] values) {
         return this.values;
     }
 
+    @Override
+    public int size() {
+        return this.values.length;
+    }
+
     @Override
     public BsoNode copy() {
         return new BsoDoubleArray(Arrays.copyOf(this.values, this.values.length));
     }
+
+    @Override
+    public BsoNode freeze() {
+        return this.copy();
+    }
 }
@@ -1,6 +1,11 @@
 package io.github.kalmemarq.bso;
 
 public record BsoFloat(float value) implements BsoPrimitive {
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.FLOAT;
+    }
+
     @Override
     public Number asNumber(Number defaultValue) {
         return this.value;
@@ -3,13 +3,28 @@ package io.github.kalmemarq.bso;
 import java.util.Arrays;
 
 public record BsoFloatArray(float[] values) implements BsoNode {
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.FLOAT_ARRAY;
+    }
+
     @Override
     public float[] asFloatArray(float[] values) {
         return this.values;
     }
 
+    @Override
+    public int size() {
+        return this.values.length;
+    }
+
     @Override
     public BsoNode copy() {
         return new BsoFloatArray(Arrays.copyOf(this.values, this.values.length));
     }
+
+    @Override
+    public BsoNode freeze() {
+        return this.copy();
+    }
 }
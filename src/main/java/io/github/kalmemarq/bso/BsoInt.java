@@ -1,6 +1,24 @@
 package io.github.kalmemarq.bso;
 
 public record BsoInt(int value) implements BsoPrimitive {
+    private static final BsoInt[] CACHE = new BsoInt[256];
+
+    static {
+        for (int i = 0; i < CACHE.length; ++i) {
+            CACHE[i] = new BsoInt(i - 128);
+        }
+    }
+
+    // Values in -128..127 are shared instances, like Integer.valueOf
+    public static BsoInt of(int value) {
+        return value >= -128 && value <= 127 ? CACHE[value + 128] : new BsoInt(value);
+    }
+
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.INT;
+    }
+
     @Override
     public Number asNumber(Number defaultValue) {
         return this.value;
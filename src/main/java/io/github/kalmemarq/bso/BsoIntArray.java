@@ -3,13 +3,28 @@ package io.github.kalmemarq.bso;
 import java.util.Arrays;
 
 public record BsoIntArray(int[] values) implements BsoNode {
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.INT_ARRAY;
+    }
+
     @Override
     public int[] asIntArray(int[] values) {
         return this.values;
     }
 
+    @Override
+    public int size() {
+        return this.values.length;
+    }
+
     @Override
     public BsoNode copy() {
         return new BsoIntArray(Arrays.copyOf(this.values, this.values.length));
     }
+
+    @Override
+    public BsoNode freeze() {
+        return this.copy();
+    }
 }
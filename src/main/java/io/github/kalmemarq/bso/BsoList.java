@@ -4,23 +4,66 @@ import java.util.*;
 
 public final class BsoList implements BsoNode {
     private final List<BsoNode> list;
+    private final boolean frozen;
+    // set on thawed lists, whose frozen elements are thawed in place the first time get() or iteration reaches them;
+    // code in this package that only reads a tree goes through list() so writing one out does not thaw it
+    private final boolean copyOnWrite;
 
     public BsoList() {
         this(new ArrayList<>());
     }
 
     public BsoList(List<BsoNode> list) {
+        this(list, false, false);
+    }
+
+    private BsoList(List<BsoNode> list, boolean frozen, boolean copyOnWrite) {
         this.list = list;
+        this.frozen = frozen;
+        this.copyOnWrite = copyOnWrite;
+    }
+
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.LIST;
     }
 
     @Override
     public Iterator<BsoNode> iterator() {
-        return this.list.iterator();
+        if (!this.copyOnWrite) return this.list.iterator();
+
+        ListIterator<BsoNode> elements = this.list.listIterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return elements.hasNext();
+            }
+
+            @Override
+            public BsoNode next() {
+                BsoNode value = elements.next();
+                if (value != null && value.isFrozen()) {
+                    value = value.thaw();
+                    elements.set(value);
+                }
+                return value;
+            }
+
+            @Override
+            public void remove() {
+                elements.remove();
+            }
+        };
     }
 
     @Override
     public BsoNode get(int index) {
-        return this.list.get(index);
+        BsoNode value = this.list.get(index);
+        if (this.copyOnWrite && value != null && value.isFrozen()) {
+            value = value.thaw();
+            this.list.set(index, value);
+        }
+        return value;
     }
 
     @Override
@@ -37,35 +80,35 @@ public final class BsoList implements BsoNode {
     }
 
     public void addByte(int value) {
-        this.list.add(new BsoByte((byte) value));
+        this.list.add(BsoByte.of((byte) value));
     }
 
     public void addUByte(int value) {
-        this.list.add(new BsoUByte((byte) (value & 0xFF)));
+        this.list.add(BsoUByte.of((byte) (value & 0xFF)));
     }
 
     public void addShort(int value) {
-        this.list.add(new BsoShort((short) value));
+        this.list.add(BsoShort.of((short) value));
     }
 
     public void addUShort(int value) {
-        this.list.add(new BsoShort((short) (value & 0xFFFF)));
+        this.list.add(BsoUShort.of((short) value));
     }
 
     public void addInt(int value) {
-        this.list.add(new BsoInt(value));
+        this.list.add(BsoInt.of(value));
     }
 
     public void addUInt(long value) {
-        this.list.add(new BsoUInt((int) (value & 0xFFFFFFFFL)));
+        this.list.add(BsoUInt.of((int) (value & 0xFFFFFFFFL)));
     }
 
     public void addLong(long value) {
-        this.list.add(new BsoLong(value));
+        this.list.add(BsoLong.of(value));
     }
 
     public void addULong(long value) {
-        this.list.add(new BsoLong(value));
+        this.list.add(BsoULong.of(value));
     }
 
     public void addFloat(float value) {
@@ -89,13 +132,65 @@ public final class BsoList implements BsoNode {
         this.list.clear();
     }
 
+    List<BsoNode> list() {
+        return this.list;
+    }
+
+    @Override
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
+    @Override
+    public BsoList freeze() {
+        if (this.frozen) return this;
+        List<BsoNode> list = new ArrayList<>(this.list.size());
+        for (BsoNode entry : this.list) {
+            list.add(entry.freeze());
+        }
+        return new BsoList(Collections.unmodifiableList(list), true, false);
+    }
+
+    // Copies only this level: arrays are copied, frozen maps and lists stay shared until get() reaches them
+    @Override
+    public BsoList thaw() {
+        if (!this.frozen) return this.copy();
+        List<BsoNode> list = new ArrayList<>(this.list.size());
+        for (BsoNode entry : this.list) {
+            list.add(entry.isFrozen() ? entry : entry.thaw());
+        }
+        return new BsoList(list, false, true);
+    }
+
+    // Frozen list with the change applied that shares all but O(log n) of its structure with this one, for keeping
+    // many versions around. The first call on a list that is not persistent yet builds the trie straight from its
+    // elements, freezing each one on the way in, which is the only full copy it makes.
+    public BsoList with(int index, BsoNode node) {
+        return new BsoList(this.persistent().with(index, node.freeze()), true, false);
+    }
+
+    public BsoList withAdded(BsoNode node) {
+        return new BsoList(this.persistent().withAdded(node.freeze()), true, false);
+    }
+
+    public BsoList withoutLast() {
+        return new BsoList(this.persistent().withoutLast(), true, false);
+    }
+
+    private PersistentList persistent() {
+        if (this.list instanceof PersistentList list) return list;
+        return PersistentList.of(this.list, BsoNode::freeze);
+    }
+
     @Override
-    public BsoNode copy() {
+    public BsoList copy() {
+        if (this.frozen) return this;
         List<BsoNode> bso = new ArrayList<>(this.list.size());
         for (BsoNode entry : this.list) {
             bso.add(entry.copy());
         }
-        return new BsoList(bso);
+        // a copy of a thawed list keeps sharing the frozen elements and thaws them the same way
+        return new BsoList(bso, false, this.copyOnWrite);
     }
 
     @Override
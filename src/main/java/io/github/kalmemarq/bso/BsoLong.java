@@ -1,6 +1,24 @@
 package io.github.kalmemarq.bso;
 
 public record BsoLong(long value) implements BsoPrimitive {
+    private static final BsoLong[] CACHE = new BsoLong[256];
+
+    static {
+        for (int i = 0; i < CACHE.length; ++i) {
+            CACHE[i] = new BsoLong(i - 128);
+        }
+    }
+
+    // Values in -128..127 are shared instances, like Long.valueOf
+    public static BsoLong of(long value) {
+        return value >= -128 && value <= 127 ? CACHE[(int) value + 128] : new BsoLong(value);
+    }
+
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.LONG;
+    }
+
     @Override
     public Number asNumber(Number defaultValue) {
         return this.value;
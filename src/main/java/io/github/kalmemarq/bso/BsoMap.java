@@ -5,28 +5,98 @@ import java.util.Map.Entry;
 
 public final class BsoMap implements BsoNode {
     private final Map<String, BsoNode> map;
+    private final boolean frozen;
+    // set on thawed maps, whose frozen children are thawed in place the first time get() or iteration reaches them;
+    // code in this package that only reads a tree goes through map() so writing one out does not thaw it
+    private final boolean copyOnWrite;
 
     public BsoMap() {
-        this(new HashMap<>());
+        this(new CompactMap());
     }
 
     public BsoMap(Map<String, BsoNode> map) {
+        this(map, false, false);
+    }
+
+    private BsoMap(Map<String, BsoNode> map, boolean frozen, boolean copyOnWrite) {
         this.map = map;
+        this.frozen = frozen;
+        this.copyOnWrite = copyOnWrite;
+    }
+
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.MAP;
     }
 
     @Override
     public Iterator<BsoNode> iterator() {
-        return this.map.values().iterator();
+        if (!this.copyOnWrite) return this.map.values().iterator();
+
+        Iterator<Entry<String, BsoNode>> entries = this.properties().iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public BsoNode next() {
+                return entries.next().getValue();
+            }
+
+            @Override
+            public void remove() {
+                entries.remove();
+            }
+        };
     }
 
     @Override
     public Set<Entry<String, BsoNode>> properties() {
-        return this.map.entrySet();
+        if (!this.copyOnWrite) return this.map.entrySet();
+
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, BsoNode>> iterator() {
+                Iterator<Entry<String, BsoNode>> entries = BsoMap.this.map.entrySet().iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, BsoNode> next() {
+                        Entry<String, BsoNode> entry = entries.next();
+                        if (entry.getValue() != null && entry.getValue().isFrozen()) {
+                            entry.setValue(entry.getValue().thaw());
+                        }
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        entries.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return BsoMap.this.map.size();
+            }
+        };
     }
 
     @Override
     public BsoNode get(String name) {
-        return this.map.get(name);
+        BsoNode value = this.map.get(name);
+        if (this.copyOnWrite && value != null && value.isFrozen()) {
+            value = value.thaw();
+            this.map.put(name, value);
+        }
+        return value;
     }
 
     @Override
@@ -44,35 +114,35 @@ public final class BsoMap implements BsoNode {
     }
 
     public void putByte(String name, int value) {
-        this.map.put(name, new BsoByte((byte) value));
+        this.map.put(name, BsoByte.of((byte) value));
     }
 
     public void putUByte(String name, int value) {
-        this.map.put(name, new BsoUByte((byte) (value & 0xFF)));
+        this.map.put(name, BsoUByte.of((byte) (value & 0xFF)));
     }
 
     public void putShort(String name, int value) {
-        this.map.put(name, new BsoShort((short) value));
+        this.map.put(name, BsoShort.of((short) value));
     }
 
     public void putUShort(String name, int value) {
-        this.map.put(name, new BsoShort((short) (value & 0xFFFF)));
+        this.map.put(name, BsoUShort.of((short) value));
     }
 
     public void putInt(String name, int value) {
-        this.map.put(name, new BsoInt(value));
+        this.map.put(name, BsoInt.of(value));
     }
 
     public void putUInt(String name, long value) {
-        this.map.put(name, new BsoUInt((int) (value & 0xFFFFFFFFL)));
+        this.map.put(name, BsoUInt.of((int) (value & 0xFFFFFFFFL)));
     }
 
     public void putLong(String name, long value) {
-        this.map.put(name, new BsoLong(value));
+        this.map.put(name, BsoLong.of(value));
     }
 
     public void putULong(String name, long value) {
-        this.map.put(name, new BsoLong(value));
+        this.map.put(name, BsoULong.of(value));
     }
 
     public void putFloat(String name, float value) {
@@ -100,7 +170,7 @@ public final class BsoMap implements BsoNode {
     }
 
     public void putUShortArray(String name, short[] values) {
-        this.map.put(name, new BsoShortArray(values));
+        this.map.put(name, new BsoUShortArray(values));
     }
 
     public void putIntArray(String name, int[] values) {
@@ -136,11 +206,53 @@ public final class BsoMap implements BsoNode {
         this.map.clear();
     }
 
+    Map<String, BsoNode> map() {
+        return this.map;
+    }
+
+    @Override
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
+    @Override
+    public BsoMap freeze() {
+        if (this.frozen) return this;
+        return new BsoMap(Collections.unmodifiableMap(CompactMap.copyOf(this.map, BsoNode::freeze)), true, false);
+    }
+
+    // Copies only this level: arrays are copied, frozen maps and lists stay shared until get() reaches them
+    @Override
+    public BsoMap thaw() {
+        if (!this.frozen) return this.copy();
+        CompactMap map = new CompactMap(this.map.size());
+        this.map.forEach((key, value) -> map.put(key, value.isFrozen() ? value : value.thaw()));
+        return new BsoMap(map, false, true);
+    }
+
+    // Frozen map with name set to node that shares all but O(log n) of its structure with this one, for keeping
+    // many versions around. The first call on a map that is not persistent yet builds the trie straight from its entries,
+    // freezing each value on the way in, which is the only full copy it makes.
+    public BsoMap with(String name, BsoNode node) {
+        return new BsoMap(this.persistent().with(name, node == null ? BsoMissing.INSTANCE : node.freeze()), true, false);
+    }
+
+    public BsoMap without(String name) {
+        PersistentMap map = this.persistent();
+        PersistentMap updated = map.without(name);
+        return updated == map && this.map == map ? this : new BsoMap(updated, true, false);
+    }
+
+    private PersistentMap persistent() {
+        if (this.map instanceof PersistentMap map) return map;
+        return PersistentMap.of(this.map, BsoNode::freeze);
+    }
+
     @Override
-    public BsoNode copy() {
-        HashMap<String, BsoNode> map = new HashMap<>();
-        this.map.forEach((key, value) -> map.put(key, value.copy()));
-        return new BsoMap(map);
+    public BsoMap copy() {
+        if (this.frozen) return this;
+        // a copy of a thawed map keeps sharing the frozen children and thaws them the same way
+        return new BsoMap(CompactMap.copyOf(this.map, BsoNode::copy), false, this.copyOnWrite);
     }
 
     @Override
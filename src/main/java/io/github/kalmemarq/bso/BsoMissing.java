@@ -3,6 +3,11 @@ package io.github.kalmemarq.bso;
 public record BsoMissing() implements BsoNode {
     public static final BsoMissing INSTANCE = new BsoMissing();
 
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.MISSING;
+    }
+
     @Override
     public BsoNode copy() {
         return this;
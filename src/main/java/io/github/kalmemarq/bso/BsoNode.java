@@ -54,6 +54,23 @@ public sealed interface BsoNode extends Iterable<BsoNode> permits BsoByteArray,
 
     BsoNode copy();
 
+    // Immutable version of this node whose copy() returns itself. Frozen maps and lists reject changes. Arrays cannot be
+    // made read-only, so freezing one copies it: a frozen tree never shares arrays with the tree it was frozen from.
+    default BsoNode freeze() {
+        return this;
+    }
+
+    default boolean isFrozen() {
+        return false;
+    }
+
+    // Mutable copy of a frozen node that copies a nested map or list only when get() reaches it
+    default BsoNode thaw() {
+        return this.copy();
+    }
+
+    BsoNodeType nodeType();
+
     //
 
     default Number asNumber() {
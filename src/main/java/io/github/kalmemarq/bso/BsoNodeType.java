@@ -0,0 +1,40 @@
+package io.github.kalmemarq.bso;
+
+public enum BsoNodeType {
+    BYTE(0b0001),
+    UBYTE(0b0001),
+    BOOL(0b0001),
+    SHORT(0b0010),
+    USHORT(0b0010),
+    INT(0b0011),
+    UINT(0b0011),
+    LONG(0b0100),
+    ULONG(0b0100),
+    FLOAT(0b0101),
+    DOUBLE(0b0101),
+    STRING(0b0110),
+    MAP(0b0111),
+    LIST(0b1000),
+    BYTE_ARRAY(0b1001),
+    UBYTE_ARRAY(0b1001),
+    SHORT_ARRAY(0b1010),
+    USHORT_ARRAY(0b1010),
+    INT_ARRAY(0b1011),
+    UINT_ARRAY(0b1011),
+    LONG_ARRAY(0b1100),
+    ULONG_ARRAY(0b1100),
+    FLOAT_ARRAY(0b1101),
+    DOUBLE_ARRAY(0b1101),
+    CUSTOM(-1),
+    MISSING(-1);
+
+    private final int id;
+
+    BsoNodeType(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return this.id;
+    }
+}
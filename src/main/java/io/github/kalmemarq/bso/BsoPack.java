@@ -0,0 +1,152 @@
+package io.github.kalmemarq.bso;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Read-only archive of named documents, memory-mapped and looked up by binary search over a sorted index.
+// Layout: 'BSOP' u8 version u8 0 u16 0 u32 count u64 index offset, the documents,
+// then count x [u64 document offset][u32 document length][u32 name offset][u32 name length] sorted by name, then the UTF-8 names.
+// Documents and lazy nodes read from a pack are only valid until it is closed.
+public class BsoPack implements AutoCloseable {
+    static final int MAGIC = 0x42534F50; // BSOP
+    static final int HEADER_SIZE = 20;
+    static final int ENTRY_SIZE = 20;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    private final Arena arena;
+    private final MemorySegment segment;
+    private final int count;
+    private final long indexOffset;
+    private final long namesOffset;
+
+    private BsoPack(Arena arena, MemorySegment segment, int count, long indexOffset) {
+        this.arena = arena;
+        this.segment = segment;
+        this.count = count;
+        this.indexOffset = indexOffset;
+        this.namesOffset = indexOffset + (long) count * ENTRY_SIZE;
+    }
+
+    public static BsoPack open(Path path) throws IOException {
+        Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Not a BSO pack");
+            }
+
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+            if (segment.get(INT, 0) != MAGIC) {
+                throw new IOException("Not a BSO pack");
+            }
+            if (segment.get(ValueLayout.JAVA_BYTE, 4) != BsoUtils.BSO_VERSION) {
+                throw new IOException("Unknown BSO pack version " + segment.get(ValueLayout.JAVA_BYTE, 4));
+            }
+
+            int count = segment.get(INT, 8);
+            long indexOffset = segment.get(LONG, 12);
+            if (count < 0 || indexOffset < HEADER_SIZE || indexOffset + (long) count * ENTRY_SIZE > size) {
+                throw new IOException("Corrupt BSO pack index");
+            }
+            return new BsoPack(arena, segment, count, indexOffset);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    public int size() {
+        return this.count;
+    }
+
+    public boolean contains(String name) {
+        return this.find(name) >= 0;
+    }
+
+    // Returns null when the pack has no entry with that name
+    public BsoNode read(String name) throws IOException {
+        return this.read(name, BsoReadOptions.DEFAULT);
+    }
+
+    public BsoNode read(String name, BsoReadOptions options) throws IOException {
+        ByteBuffer document = this.bytes(name);
+        return document != null ? BsoUtils.read(document, options) : null;
+    }
+
+    public BsoNode readLazy(String name) throws IOException {
+        ByteBuffer document = this.bytes(name);
+        return document != null ? BsoUtils.readLazy(document) : null;
+    }
+
+    // Read-only view of the encoded document, or null
+    public ByteBuffer bytes(String name) throws IOException {
+        int i = this.find(name);
+        if (i < 0) return null;
+
+        long entry = this.indexOffset + (long) i * ENTRY_SIZE;
+        long offset = this.segment.get(LONG, entry);
+        int length = this.segment.get(INT, entry + 8);
+        if (offset < HEADER_SIZE || length < 0 || offset + length > this.indexOffset) {
+            throw new IOException("Corrupt BSO pack entry '" + name + "'");
+        }
+        return this.segment.asSlice(offset, length).asByteBuffer().asReadOnlyBuffer();
+    }
+
+    // Names in index order, which is by their UTF-8 bytes
+    public List<String> names() {
+        List<String> names = new ArrayList<>(this.count);
+        for (int i = 0; i < this.count; ++i) {
+            long entry = this.indexOffset + (long) i * ENTRY_SIZE;
+            long start = this.namesOffset + Integer.toUnsignedLong(this.segment.get(INT, entry + 12));
+            int length = this.segment.get(INT, entry + 16);
+            names.add(new String(this.segment.asSlice(start, length).toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8));
+        }
+        return names;
+    }
+
+    private int find(String name) {
+        MemorySegment key = MemorySegment.ofArray(name.getBytes(StandardCharsets.UTF_8));
+        int low = 0;
+        int high = this.count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = this.compare(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int i, MemorySegment key) {
+        long entry = this.indexOffset + (long) i * ENTRY_SIZE;
+        long start = this.namesOffset + Integer.toUnsignedLong(this.segment.get(INT, entry + 12));
+        int length = this.segment.get(INT, entry + 16);
+
+        long mismatch = MemorySegment.mismatch(this.segment, start, start + length, key, 0, key.byteSize());
+        if (mismatch < 0) return 0;
+        if (mismatch == length) return -1;
+        if (mismatch == key.byteSize()) return 1;
+        return Integer.compare(this.segment.get(ValueLayout.JAVA_BYTE, start + mismatch) & 0xFF, key.get(ValueLayout.JAVA_BYTE, mismatch) & 0xFF);
+    }
+
+    @Override
+    public void close() {
+        this.arena.close();
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.kalmemarq.bso;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Builds a BsoPack: documents are appended as they are added, the sorted index is written on close
+public class BsoPackWriter implements AutoCloseable {
+    private final FileChannel channel;
+    private final List<Entry> entries = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private long position = BsoPack.HEADER_SIZE;
+
+    public BsoPackWriter(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    public void add(String name, BsoNode node) throws IOException {
+        this.add(name, node, BsoWriteOptions.DEFAULT);
+    }
+
+    public void add(String name, BsoNode node, BsoWriteOptions options) throws IOException {
+        this.add(name, BsoUtils.toByteArray(node, options));
+    }
+
+    // The file is copied as is, so it keeps its own endianness and compression
+    public void add(String name, Path file) throws IOException {
+        this.add(name, Files.readAllBytes(file));
+    }
+
+    private void add(String name, byte[] document) throws IOException {
+        if (!this.names.add(name)) {
+            throw new IllegalArgumentException("Duplicate pack entry '" + name + "'");
+        }
+        if (document.length == 0 || (document[0] >> 4 & 0xF) != BsoUtils.BSO_VERSION) {
+            throw new IOException("Pack entry '" + name + "' is not a BSO document");
+        }
+
+        this.entries.add(new Entry(name.getBytes(StandardCharsets.UTF_8), this.position, document.length));
+        this.write(ByteBuffer.wrap(document));
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            this.position += this.channel.write(buffer, this.position);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.entries.sort((a, b) -> Arrays.compareUnsigned(a.name, b.name));
+
+            long indexOffset = this.position;
+            long namesLength = 0;
+            ByteBuffer index = ByteBuffer.allocate(Math.multiplyExact(this.entries.size(), BsoPack.ENTRY_SIZE));
+            for (Entry entry : this.entries) {
+                index.putLong(entry.offset).putInt(entry.length).putInt((int) namesLength).putInt(entry.name.length);
+                namesLength += entry.name.length;
+                if (namesLength > Integer.MAX_VALUE) {
+                    throw new IOException("Pack entry names exceed " + Integer.MAX_VALUE + " bytes");
+                }
+            }
+            this.write(index.flip());
+
+            ByteBuffer names = ByteBuffer.allocate((int) namesLength);
+            for (Entry entry : this.entries) {
+                names.put(entry.name);
+            }
+            this.write(names.flip());
+
+            ByteBuffer header = ByteBuffer.allocate(BsoPack.HEADER_SIZE);
+            header.putInt(BsoPack.MAGIC).put((byte) BsoUtils.BSO_VERSION).put((byte) 0).putShort((short) 0).putInt(this.entries.size()).putLong(indexOffset).flip();
+            while (header.hasRemaining()) {
+                this.channel.write(header, header.position());
+            }
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    private record Entry(byte[] name, long offset, int length) {
+    }
+}
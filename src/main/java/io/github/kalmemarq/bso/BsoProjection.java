@@ -0,0 +1,121 @@
+package io.github.kalmemarq.bso;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Paths to decode with BsoUtils.read(path, projection), like "meta.version" or "players[*].name".
+// "." steps into a map key and "[*]" into every element of a list; everything off the paths is skipped without being decoded.
+// Values whose type does not fit their path are left out.
+public final class BsoProjection {
+    private final Map<String, BsoProjection> children = new LinkedHashMap<>();
+    private BsoProjection elements;
+    private boolean whole;
+    private String[] keys;
+    private byte[][] utf8Keys;
+    private BsoProjection[] keyProjections;
+
+    private BsoProjection() {
+    }
+
+    public static BsoProjection of(String... paths) {
+        return of(List.of(paths));
+    }
+
+    public static BsoProjection of(Collection<String> paths) {
+        BsoProjection root = new BsoProjection();
+        for (String path : paths) {
+            root.add(path);
+        }
+        root.seal();
+        return root;
+    }
+
+    private void add(String path) {
+        BsoProjection node = this;
+        for (int i = 0; i < path.length();) {
+            if (path.startsWith("[*]", i)) {
+                if (node.elements == null) node.elements = new BsoProjection();
+                node = node.elements;
+                i += 3;
+                continue;
+            }
+
+            if (i > 0 && path.charAt(i++) != '.') {
+                throw new IllegalArgumentException("Invalid projection path '" + path + "' at " + (i - 1));
+            }
+            int end = i;
+            while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') ++end;
+            if (end == i) {
+                throw new IllegalArgumentException("Invalid projection path '" + path + "' at " + i);
+            }
+            node = node.children.computeIfAbsent(path.substring(i, end), k -> new BsoProjection());
+            i = end;
+        }
+        node.whole = true;
+    }
+
+    private void seal() {
+        this.keys = this.children.keySet().toArray(new String[0]);
+        this.utf8Keys = new byte[this.keys.length][];
+        this.keyProjections = new BsoProjection[this.keys.length];
+        for (int i = 0; i < this.keys.length; ++i) {
+            this.utf8Keys[i] = this.keys[i].getBytes(StandardCharsets.UTF_8);
+            this.keyProjections[i] = this.children.get(this.keys[i]);
+            this.keyProjections[i].seal();
+        }
+        if (this.elements != null) {
+            this.elements.seal();
+        }
+    }
+
+    // Returns null, with the value skipped, when it does not fit the projection
+    BsoNode read(ByteBufferDataInput in, int id, int ad) throws IOException {
+        if (this.whole) {
+            return BsoUtils.readBsoNode(in, id, ad);
+        }
+
+        if (id == 0b0111 && this.keys.length > 0) {
+            int length = BsoUtils.readLength(in, ad);
+            Map<String, BsoNode> map = new CompactMap(in.shapes(), 0);
+            for (int i = 0; length < 0 || i < length; ++i) {
+                long adid = BsoUtils.readADID(in);
+                if (adid == 0 && length < 0) break;
+                int ead = (int) ((adid >> 32L) & 0xFFFFFFFFL);
+                int eid = (int) (adid & 0xFFFFFFFFL);
+
+                int match = in.matchKey(ad, this.keys, this.utf8Keys);
+                if (match < 0) {
+                    BsoUtils.skipBsoNode(in, eid, ead);
+                    continue;
+                }
+                BsoNode value = this.keyProjections[match].read(in, eid, ead);
+                if (value != null) {
+                    map.put(this.keys[match], value);
+                }
+            }
+            return new BsoMap(map);
+        }
+
+        if (id == 0b1000 && this.elements != null) {
+            int length = BsoUtils.readLength(in, ad);
+            List<BsoNode> list = length < 0 ? new ArrayList<>() : new ArrayList<>(length);
+            for (int i = 0; length < 0 || i < length; ++i) {
+                long adid = BsoUtils.readADID(in);
+                if (adid == 0 && length < 0) break;
+                BsoNode value = this.elements.read(in, (int) (adid & 0xFFFFFFFFL), (int) ((adid >> 32L) & 0xFFFFFFFFL));
+                if (value != null) {
+                    list.add(value);
+                }
+            }
+            return new BsoList(list);
+        }
+
+        BsoUtils.skipBsoNode(in, id, ad);
+        return null;
+    }
+}
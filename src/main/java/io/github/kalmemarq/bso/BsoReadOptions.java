@@ -0,0 +1,22 @@
+package io.github.kalmemarq.bso;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+public record BsoReadOptions(int keyCacheSize, Executor executor) {
+    public static final BsoReadOptions DEFAULT = new BsoReadOptions();
+    public static final BsoReadOptions INTERNED_KEYS = new BsoReadOptions(1024);
+
+    public BsoReadOptions() {
+        this(0);
+    }
+
+    public BsoReadOptions(int keyCacheSize) {
+        this(keyCacheSize, ForkJoinPool.commonPool());
+    }
+
+    // Block-compressed documents are decompressed on the executor, or on the reading thread when it is null
+    public BsoReadOptions withExecutor(Executor executor) {
+        return new BsoReadOptions(this.keyCacheSize, executor);
+    }
+}
@@ -0,0 +1,37 @@
+package io.github.kalmemarq.bso;
+
+public record BsoRecordOptions(BsoWriteOptions writeOptions, boolean checksums, int batchSize, Sync sync) {
+    public static final BsoRecordOptions DEFAULT = new BsoRecordOptions(BsoWriteOptions.DEFAULT, true, 64 * 1024, Sync.ON_CLOSE);
+
+    public BsoRecordOptions {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size " + batchSize + " must be positive");
+        }
+    }
+
+    public BsoRecordOptions withWriteOptions(BsoWriteOptions writeOptions) {
+        return new BsoRecordOptions(writeOptions, this.checksums, this.batchSize, this.sync);
+    }
+
+    // Only applies to new logs; an existing log keeps the setting in its file header
+    public BsoRecordOptions withChecksums(boolean checksums) {
+        return new BsoRecordOptions(this.writeOptions, checksums, this.batchSize, this.sync);
+    }
+
+    public BsoRecordOptions withBatchSize(int batchSize) {
+        return new BsoRecordOptions(this.writeOptions, this.checksums, batchSize, this.sync);
+    }
+
+    public BsoRecordOptions withSync(Sync sync) {
+        return new BsoRecordOptions(this.writeOptions, this.checksums, this.batchSize, sync);
+    }
+
+    public enum Sync {
+        // Batches are handed to the OS, which decides when they reach the disk
+        NONE,
+        // The log is fsynced once when the writer is closed
+        ON_CLOSE,
+        // Every batch written is fsynced, so each flush is a group commit
+        ON_FLUSH
+    }
+}
@@ -0,0 +1,172 @@
+package io.github.kalmemarq.bso;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+// Reads a log written by BsoRecordWriter. A record cut short at the end of the file is treated as the end of the log.
+public class BsoRecordReader implements AutoCloseable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final BsoReadOptions options;
+    private final boolean ownsChannel;
+    private final boolean checksums;
+    private final int recordHeaderSize;
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+    private long position;
+
+    public BsoRecordReader(Path path) throws IOException {
+        this(path, BsoRecordWriter.FILE_HEADER_SIZE);
+    }
+
+    // Resumes at an offset returned by BsoRecordWriter.append or position()
+    public BsoRecordReader(Path path, long offset) throws IOException {
+        this(path, offset, BsoReadOptions.DEFAULT);
+    }
+
+    public BsoRecordReader(Path path, long offset, BsoReadOptions options) throws IOException {
+        this(FileChannel.open(path, StandardOpenOption.READ), offset, options, true);
+    }
+
+    BsoRecordReader(FileChannel channel, long offset, BsoReadOptions options, boolean ownsChannel) throws IOException {
+        this.channel = channel;
+        this.options = options;
+        this.ownsChannel = ownsChannel;
+
+        ByteBuffer header = ByteBuffer.allocate(BsoRecordWriter.FILE_HEADER_SIZE);
+        try {
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0);
+            if (header.hasRemaining() || header.getInt(0) != BsoRecordWriter.MAGIC) {
+                throw new IOException("Not a BSO record log");
+            }
+            if (header.get(4) != BsoUtils.BSO_VERSION) {
+                throw new IOException("Unknown BSO record log version " + header.get(4));
+            }
+            if (offset < BsoRecordWriter.FILE_HEADER_SIZE) {
+                throw new IllegalArgumentException("Offset " + offset + " is inside the file header");
+            }
+        } catch (IOException | RuntimeException e) {
+            if (ownsChannel) channel.close();
+            throw e;
+        }
+
+        this.checksums = (header.get(5) & BsoRecordWriter.FLAG_CHECKSUMS) != 0;
+        this.recordHeaderSize = this.checksums ? 8 : 4;
+        this.position = offset;
+    }
+
+    boolean hasChecksums() {
+        return this.checksums;
+    }
+
+    // Offset of the next record; after the last record this is where valid data ends
+    public long position() {
+        return this.position;
+    }
+
+    // Returns null at the end of the log
+    public BsoNode next() throws IOException {
+        int length = this.readLength();
+        if (length < 0 || !this.require(this.recordHeaderSize + length)) return null;
+
+        ByteBuffer record = this.buffer.slice(this.buffer.position() + this.recordHeaderSize, length);
+        if (this.checksums) {
+            this.crc.reset();
+            this.crc.update(record.duplicate());
+            if ((int) this.crc.getValue() != this.buffer.getInt(this.buffer.position() + 4)) {
+                throw new IOException("Checksum mismatch in record at offset " + this.position);
+            }
+        }
+
+        BsoNode node = BsoUtils.read(record, this.options);
+        this.advance(this.recordHeaderSize + length);
+        return node;
+    }
+
+    // Steps over the next record by its length without decoding or verifying it, returns false at the end of the log
+    public boolean skip() throws IOException {
+        int length = this.readLength();
+        if (length < 0) return false;
+
+        long size = this.recordHeaderSize + (long) length;
+        if (size <= this.buffer.remaining()) {
+            this.advance((int) size);
+            return true;
+        }
+        if (this.position + size > this.channel.size()) {
+            return false;
+        }
+
+        this.position += size;
+        this.buffer.clear().flip();
+        return true;
+    }
+
+    // Steps over the next record if it is whole and its checksum matches, returns false at the end of the log or at the first
+    // torn or corrupt record, which is where BsoRecordWriter truncates the log when it reopens it
+    boolean skipIntact() throws IOException {
+        if (!this.require(this.recordHeaderSize)) return false;
+
+        int length = this.buffer.getInt(this.buffer.position());
+        if (length <= 0 || length > BsoUtils.MAX_ARRAY_SIZE - this.recordHeaderSize) return false;
+        if (this.position + this.recordHeaderSize + length > this.channel.size()) return false;
+        if (!this.checksums) return this.skip();
+
+        if (!this.require(this.recordHeaderSize + length)) return false;
+        this.crc.reset();
+        this.crc.update(this.buffer.slice(this.buffer.position() + this.recordHeaderSize, length));
+        if ((int) this.crc.getValue() != this.buffer.getInt(this.buffer.position() + 4)) return false;
+
+        this.advance(this.recordHeaderSize + length);
+        return true;
+    }
+
+    private int readLength() throws IOException {
+        if (!this.require(this.recordHeaderSize)) return -1;
+
+        int length = this.buffer.getInt(this.buffer.position());
+        if (length <= 0 || length > BsoUtils.MAX_ARRAY_SIZE - this.recordHeaderSize) {
+            throw new IOException("Invalid record length " + length + " at offset " + this.position);
+        }
+        return length;
+    }
+
+    private void advance(int n) {
+        this.buffer.position(this.buffer.position() + n);
+        this.position += n;
+    }
+
+    private boolean require(int n) throws IOException {
+        if (this.buffer.remaining() >= n) return true;
+
+        if (this.buffer.capacity() < n) {
+            this.buffer = ByteBuffer.allocate(n).put(this.buffer);
+        } else {
+            this.buffer.compact();
+        }
+
+        long offset = this.position + this.buffer.position();
+        while (this.buffer.position() < n) {
+            int read = this.channel.read(this.buffer, offset);
+            if (read < 0) {
+                this.buffer.flip();
+                return false;
+            }
+            offset += read;
+        }
+        this.buffer.flip();
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.ownsChannel) {
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package io.github.kalmemarq.bso;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+// Appends BSO documents to a record log: a file header, then [i32 length][i32 crc32c if enabled][document] per record
+public class BsoRecordWriter implements AutoCloseable {
+    static final int MAGIC = 0x42534F52; // BSOR
+    static final int FILE_HEADER_SIZE = 6;
+    static final int FLAG_CHECKSUMS = 0b0001;
+
+    private final FileChannel channel;
+    private final BsoRecordOptions options;
+    private final boolean checksums;
+    private final int recordHeaderSize;
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer batch;
+    private long position;
+
+    public BsoRecordWriter(Path path) throws IOException {
+        this(path, BsoRecordOptions.DEFAULT);
+    }
+
+    public BsoRecordWriter(Path path, BsoRecordOptions options) throws IOException {
+        this.options = options;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        try {
+            if (this.channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                header.putInt(MAGIC).put((byte) BsoUtils.BSO_VERSION).put((byte) (options.checksums() ? FLAG_CHECKSUMS : 0)).flip();
+                while (header.hasRemaining()) {
+                    this.channel.write(header, header.position());
+                }
+                this.checksums = options.checksums();
+                this.position = FILE_HEADER_SIZE;
+            } else {
+                // drops a record torn by a crash mid-write, so new records are not appended behind it. With checksums a record
+                // whose header made it to disk but whose payload did not is caught too, and the log is cut before it
+                try (BsoRecordReader reader = new BsoRecordReader(this.channel, FILE_HEADER_SIZE, BsoReadOptions.DEFAULT, false)) {
+                    while (reader.skipIntact());
+                    this.checksums = reader.hasChecksums();
+                    this.position = reader.position();
+                }
+                if (this.position < this.channel.size()) {
+                    this.channel.truncate(this.position);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            this.channel.close();
+            throw e;
+        }
+
+        this.recordHeaderSize = this.checksums ? 8 : 4;
+        this.batch = ByteBuffer.allocate(options.batchSize());
+    }
+
+    // Returns the offset of the record, which BsoRecordReader can resume from
+    public long append(BsoNode node) throws IOException {
+        BsoWriteOptions write = this.options.writeOptions();
+        int start;
+        int length;
+
+        if (write.codec() == null) {
+            KeyTable keys = write.keyTable() ? KeyTable.collect(node) : null;
+            long size = BsoUtils.encodedSize(node, keys, write.fieldIndex());
+            if (size > BsoUtils.MAX_ARRAY_SIZE - this.recordHeaderSize) {
+                throw new IOException("Record of " + size + " bytes is too large");
+            }
+
+            length = (int) size;
+            start = this.reserve(length);
+            ByteOrder order = write.endianess() == BsoUtils.Endianess.BIG ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            BsoUtils.encode(new ByteBufferDataOutput(this.batch.slice(start + this.recordHeaderSize, length).order(order)), node, write, keys, length);
+        } else {
+            byte[] bytes = BsoUtils.toByteArray(node, write);
+            length = bytes.length;
+            start = this.reserve(length);
+            this.batch.put(start + this.recordHeaderSize, bytes);
+        }
+
+        this.batch.putInt(start, length);
+        if (this.checksums) {
+            this.crc.reset();
+            this.crc.update(this.batch.slice(start + this.recordHeaderSize, length));
+            this.batch.putInt(start + 4, (int) this.crc.getValue());
+        }
+        this.batch.position(start + this.recordHeaderSize + length);
+
+        long offset = this.position;
+        this.position += this.recordHeaderSize + length;
+        if (this.batch.position() >= this.options.batchSize()) {
+            this.flush();
+        }
+        return offset;
+    }
+
+    private int reserve(int length) throws IOException {
+        int needed = this.recordHeaderSize + length;
+        if (this.batch.remaining() < needed) {
+            this.flush();
+            if (this.batch.capacity() < needed) {
+                this.batch = ByteBuffer.allocate(needed);
+            }
+        }
+        return this.batch.position();
+    }
+
+    // Offset the next record will be written at
+    public long position() {
+        return this.position;
+    }
+
+    public void flush() throws IOException {
+        this.writeBatch();
+        if (this.options.sync() == BsoRecordOptions.Sync.ON_FLUSH) {
+            this.channel.force(false);
+        }
+    }
+
+    // Writes out the batch and fsyncs regardless of the sync policy
+    public void sync() throws IOException {
+        this.writeBatch();
+        this.channel.force(false);
+    }
+
+    private void writeBatch() throws IOException {
+        this.batch.flip();
+        long offset = this.position - this.batch.remaining();
+        while (this.batch.hasRemaining()) {
+            offset += this.channel.write(this.batch, offset);
+        }
+
+        if (this.batch.capacity() > this.options.batchSize()) {
+            this.batch = ByteBuffer.allocate(this.options.batchSize());
+        } else {
+            this.batch.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.writeBatch();
+            if (this.options.sync() != BsoRecordOptions.Sync.NONE) {
+                this.channel.force(false);
+            }
+        } finally {
+            this.channel.close();
+        }
+    }
+}
@@ -1,6 +1,24 @@
 package io.github.kalmemarq.bso;
 
 public record BsoShort(short value) implements BsoPrimitive {
+    private static final BsoShort[] CACHE = new BsoShort[256];
+
+    static {
+        for (int i = 0; i < CACHE.length; ++i) {
+            CACHE[i] = new BsoShort((short) (i - 128));
+        }
+    }
+
+    // Values in -128..127 are shared instances, like Short.valueOf
+    public static BsoShort of(short value) {
+        return value >= -128 && value <= 127 ? CACHE[value + 128] : new BsoShort(value);
+    }
+
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.SHORT;
+    }
+
     @Override
     public Number asNumber(Number defaultValue) {
         return this.value;
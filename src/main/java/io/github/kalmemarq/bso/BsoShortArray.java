@@ -3,13 +3,28 @@ package io.github.kalmemarq.bso;
 import java.util.Arrays;
 
 public record BsoShortArray(short[] values) implements BsoNode {
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.SHORT_ARRAY;
+    }
+
     @Override
     public short[] asShortArray(short[] values) {
         return this.values;
     }
 
+    @Override
+    public int size() {
+        return this.values.length;
+    }
+
     @Override
     public BsoNode copy() {
         return new BsoShortArray(Arrays.copyOf(this.values, this.values.length));
     }
+
+    @Override
+    public BsoNode freeze() {
+        return this.copy();
+    }
 }
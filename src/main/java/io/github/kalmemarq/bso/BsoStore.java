@@ -0,0 +1,411 @@
+package io.github.kalmemarq.bso;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32C;
+
+// Keyed documents in one file, laid out like a region file: 4KiB sectors, sector 0 holds the header,
+// the following sectors hold a table of [u32 first sector][u32 sector count][u32 length][u32 crc32c] slots,
+// and each slot points at a run of sectors holding [u16 key length][key][document].
+// A document is never overwritten in place: it is written to the first free run, the slot is pointed at it, and only then
+// are its old sectors released for reuse. compact() moves documents down into the holes and trims the file.
+public class BsoStore implements AutoCloseable {
+    static final int MAGIC = 0x42534F53; // BSOS
+    static final int SECTOR_SIZE = 4096;
+    static final int SLOT_SIZE = 16;
+    private static final int DEFAULT_SLOTS = 1024;
+    private static final int MAX_KEY_LENGTH = 0xFFFF;
+
+    private final FileChannel channel;
+    private final CRC32C crc = new CRC32C();
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final BitSet used = new BitSet();
+    private String[] keys;
+    private int[] sectors;
+    private int[] sectorCounts;
+    private int[] lengths;
+    private int[] checksums;
+    private int tableSectors;
+
+    private BsoStore(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    public static BsoStore open(Path path) throws IOException {
+        return open(path, DEFAULT_SLOTS);
+    }
+
+    // slots is the initial table capacity of a new store, the table doubles when it runs out
+    public static BsoStore open(Path path, int slots) throws IOException {
+        if (slots <= 0) {
+            throw new IllegalArgumentException("Slot count " + slots + " must be positive");
+        }
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        BsoStore store = new BsoStore(channel);
+        try {
+            if (channel.size() == 0) {
+                store.create(slots);
+            } else {
+                store.load();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private void create(int slots) throws IOException {
+        this.resizeTable(slots);
+        this.used.set(0, 1 + this.tableSectors);
+        this.writeAt(ByteBuffer.allocate(this.tableSectors * SECTOR_SIZE), SECTOR_SIZE);
+        this.writeHeader();
+    }
+
+    private void load() throws IOException {
+        ByteBuffer header = this.readAt(0, 16);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a BSO store");
+        }
+        if (header.get(4) != BsoUtils.BSO_VERSION) {
+            throw new IOException("Unknown BSO store version " + header.get(4));
+        }
+        if (header.getInt(8) != SECTOR_SIZE) {
+            throw new IOException("Unsupported BSO store sector size " + header.getInt(8));
+        }
+
+        int count = header.getInt(12);
+        if (count <= 0) {
+            throw new IOException("Invalid BSO store slot count " + count);
+        }
+        this.resizeTable(count);
+        this.used.set(0, 1 + this.tableSectors);
+
+        ByteBuffer table = this.readAt(SECTOR_SIZE, count * SLOT_SIZE);
+        long fileSectors = (this.channel.size() + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        for (int slot = 0; slot < count; ++slot) {
+            int sector = table.getInt();
+            int sectorCount = table.getInt();
+            int length = table.getInt();
+            int checksum = table.getInt();
+            if (sectorCount == 0) continue;
+
+            if (sector <= this.tableSectors || sectorCount < 0 || (long) sector + sectorCount > fileSectors || length < 2 || length > (long) sectorCount * SECTOR_SIZE) {
+                throw new IOException("Corrupt BSO store slot " + slot);
+            }
+            int next = this.used.nextSetBit(sector);
+            if (next >= 0 && next < sector + sectorCount) {
+                throw new IOException("BSO store slot " + slot + " overlaps another slot");
+            }
+
+            ByteBuffer keyLength = this.readAt((long) sector * SECTOR_SIZE, 2);
+            int keyBytes = keyLength.getShort(0) & 0xFFFF;
+            if (2 + keyBytes > length) {
+                throw new IOException("Corrupt BSO store slot " + slot);
+            }
+            String key = StandardCharsets.UTF_8.decode(this.readAt((long) sector * SECTOR_SIZE + 2, keyBytes)).toString();
+
+            this.keys[slot] = key;
+            this.sectors[slot] = sector;
+            this.sectorCounts[slot] = sectorCount;
+            this.lengths[slot] = length;
+            this.checksums[slot] = checksum;
+            this.used.set(sector, sector + sectorCount);
+            this.slots.put(key, slot);
+        }
+    }
+
+    private void resizeTable(int count) {
+        this.keys = this.keys == null ? new String[count] : Arrays.copyOf(this.keys, count);
+        this.sectors = this.sectors == null ? new int[count] : Arrays.copyOf(this.sectors, count);
+        this.sectorCounts = this.sectorCounts == null ? new int[count] : Arrays.copyOf(this.sectorCounts, count);
+        this.lengths = this.lengths == null ? new int[count] : Arrays.copyOf(this.lengths, count);
+        this.checksums = this.checksums == null ? new int[count] : Arrays.copyOf(this.checksums, count);
+        this.tableSectors = sectorsFor((long) count * SLOT_SIZE);
+    }
+
+    private static int sectorsFor(long bytes) {
+        return (int) ((bytes + SECTOR_SIZE - 1) / SECTOR_SIZE);
+    }
+
+    public synchronized int size() {
+        return this.slots.size();
+    }
+
+    public synchronized boolean contains(String key) {
+        return this.slots.containsKey(key);
+    }
+
+    public synchronized Set<String> keys() {
+        return Set.copyOf(this.slots.keySet());
+    }
+
+    // Returns null when the key is not in the store
+    public BsoNode get(String key) throws IOException {
+        return this.get(key, BsoReadOptions.DEFAULT);
+    }
+
+    public BsoNode get(String key, BsoReadOptions options) throws IOException {
+        ByteBuffer record;
+        synchronized (this) {
+            Integer slot = this.slots.get(key);
+            if (slot == null) return null;
+
+            record = this.readAt((long) this.sectors[slot] * SECTOR_SIZE, this.lengths[slot]);
+            this.crc.reset();
+            this.crc.update(record.duplicate());
+            if ((int) this.crc.getValue() != this.checksums[slot]) {
+                throw new IOException("Checksum mismatch for BSO store key '" + key + "'");
+            }
+        }
+
+        record.position(2 + (record.getShort(0) & 0xFFFF));
+        return BsoUtils.read(record.slice(), options);
+    }
+
+    public void put(String key, BsoNode node) throws IOException {
+        this.put(key, node, BsoWriteOptions.DEFAULT);
+    }
+
+    public void put(String key, BsoNode node, BsoWriteOptions options) throws IOException {
+        ByteBuffer record = encode(key, node, options);
+
+        synchronized (this) {
+            int length = record.remaining();
+            int needed = sectorsFor(length);
+            Integer existing = this.slots.get(key);
+
+            // the old sectors stay allocated until the slot points at the new copy, so a crash keeps one intact version
+            int slot = existing != null ? existing : this.freeSlot();
+            int sector = this.allocate(needed);
+
+            this.crc.reset();
+            this.crc.update(record.duplicate());
+            this.writeAt(record, (long) sector * SECTOR_SIZE);
+
+            int oldSector = this.sectors[slot];
+            int oldCount = this.sectorCounts[slot];
+            this.setSlot(slot, key, sector, needed, length, (int) this.crc.getValue());
+            if (existing != null) {
+                this.used.clear(oldSector, oldSector + oldCount);
+            }
+        }
+    }
+
+    private static ByteBuffer encode(String key, BsoNode node, BsoWriteOptions options) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Key of " + keyBytes.length + " bytes is too long");
+        }
+
+        if (options.codec() != null) {
+            byte[] document = BsoUtils.toByteArray(node, options);
+            return ByteBuffer.allocate(2 + keyBytes.length + document.length).putShort((short) keyBytes.length).put(keyBytes).put(document).flip();
+        }
+
+        KeyTable keys = options.keyTable() ? KeyTable.collect(node) : null;
+        long size = BsoUtils.encodedSize(node, keys, options.fieldIndex());
+        if (size > BsoUtils.MAX_ARRAY_SIZE - 2 - keyBytes.length) {
+            throw new IllegalArgumentException("Document of " + size + " bytes is too large for a BSO store");
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(2 + keyBytes.length + (int) size).putShort((short) keyBytes.length).put(keyBytes);
+        ByteOrder order = options.endianess() == BsoUtils.Endianess.BIG ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        BsoUtils.encode(new ByteBufferDataOutput(record.slice().order(order)), node, options, keys, (int) size);
+        return record.position(0);
+    }
+
+    public synchronized boolean remove(String key) throws IOException {
+        Integer slot = this.slots.remove(key);
+        if (slot == null) return false;
+
+        int sector = this.sectors[slot];
+        int count = this.sectorCounts[slot];
+        this.setSlot(slot, null, 0, 0, 0, 0);
+        this.used.clear(sector, sector + count);
+        return true;
+    }
+
+    private int freeSlot() throws IOException {
+        for (int slot = 0; slot < this.keys.length; ++slot) {
+            if (this.keys[slot] == null) return slot;
+        }
+
+        int slot = this.keys.length;
+        this.growTable(this.keys.length * 2);
+        return slot;
+    }
+
+    // Documents sitting where the larger table goes are moved out of the way first. Their old sectors stay allocated until
+    // every one of them has moved, so no document is copied into sectors another still has to be read from.
+    private void growTable(int count) throws IOException {
+        int oldSectors = this.tableSectors;
+        int newSectors = sectorsFor((long) count * SLOT_SIZE);
+
+        List<Integer> blocking = new ArrayList<>();
+        for (int slot = 0; slot < this.keys.length; ++slot) {
+            if (this.keys[slot] != null && this.sectors[slot] < 1 + newSectors) {
+                blocking.add(slot);
+            }
+        }
+        this.used.set(1 + oldSectors, 1 + newSectors);
+        int[] oldStarts = new int[blocking.size()];
+        for (int i = 0; i < blocking.size(); ++i) {
+            int slot = blocking.get(i);
+            oldStarts[i] = this.sectors[slot];
+            this.move(slot, this.allocate(this.sectorCounts[slot]));
+        }
+        for (int i = 0; i < blocking.size(); ++i) {
+            int end = oldStarts[i] + this.sectorCounts[blocking.get(i)];
+            if (end > 1 + newSectors) {
+                this.used.clear(1 + newSectors, end);
+            }
+        }
+
+        int oldCount = this.keys.length;
+        this.resizeTable(count);
+        this.writeAt(ByteBuffer.allocate((count - oldCount) * SLOT_SIZE), SECTOR_SIZE + (long) oldCount * SLOT_SIZE);
+        this.writeHeader();
+    }
+
+    private int allocate(int count) {
+        int start = this.used.nextClearBit(1 + this.tableSectors);
+        while (true) {
+            int end = this.used.nextSetBit(start);
+            if (end < 0 || end - start >= count) break;
+            start = this.used.nextClearBit(end);
+        }
+        this.used.set(start, start + count);
+        return start;
+    }
+
+    // Copies a document to sectors already reserved for it and points its slot there
+    private void move(int slot, int sector) throws IOException {
+        ByteBuffer record = this.readAt((long) this.sectors[slot] * SECTOR_SIZE, this.lengths[slot]);
+        this.writeAt(record, (long) sector * SECTOR_SIZE);
+        this.setSlot(slot, this.keys[slot], sector, this.sectorCounts[slot], this.lengths[slot], this.checksums[slot]);
+    }
+
+    private void setSlot(int slot, String key, int sector, int sectorCount, int length, int checksum) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(SLOT_SIZE).putInt(sector).putInt(sectorCount).putInt(length).putInt(checksum).flip();
+        this.writeAt(entry, SECTOR_SIZE + (long) slot * SLOT_SIZE);
+
+        if (key != null) this.slots.put(key, slot);
+        this.keys[slot] = key;
+        this.sectors[slot] = sector;
+        this.sectorCounts[slot] = sectorCount;
+        this.lengths[slot] = length;
+        this.checksums[slot] = checksum;
+    }
+
+    // Slides documents down into the free sectors in front of them, then trims the file.
+    // Each move takes the lock on its own, so gets and puts keep going while it runs.
+    public void compact() throws IOException {
+        List<Integer> order = new ArrayList<>();
+        synchronized (this) {
+            for (int slot = 0; slot < this.keys.length; ++slot) {
+                if (this.keys[slot] != null) order.add(slot);
+            }
+            order.sort(Comparator.comparingInt(slot -> this.sectors[slot]));
+        }
+
+        for (int slot : order) {
+            synchronized (this) {
+                if (this.keys[slot] == null) continue;
+
+                int sector = this.sectors[slot];
+                int count = this.sectorCounts[slot];
+                int target = this.used.nextClearBit(1 + this.tableSectors);
+                if (target >= sector) continue;
+
+                int free = this.used.nextSetBit(target) - target;
+                if (free >= count) {
+                    this.used.set(target, target + count);
+                    this.move(slot, target);
+                    this.used.clear(sector, sector + count);
+                } else if (target + free == sector) {
+                    // the new position overlaps the old one, so the document is parked elsewhere first
+                    // and a crash never leaves its slot pointing at half-overwritten sectors
+                    int temporary = this.allocate(count);
+                    this.move(slot, temporary);
+                    this.used.clear(sector, sector + count);
+                    this.used.set(target, target + count);
+                    this.move(slot, target);
+                    this.used.clear(temporary, temporary + count);
+                }
+            }
+        }
+
+        synchronized (this) {
+            long end = (long) Math.max(this.used.length(), 1 + this.tableSectors) * SECTOR_SIZE;
+            if (this.channel.size() > end) {
+                this.channel.truncate(end);
+            }
+        }
+    }
+
+    public CompletableFuture<Void> compactAsync(Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                this.compact();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    // Sectors not used by the header, the table or a document, up to the end of the file
+    public synchronized long freeSectors() throws IOException {
+        long fileSectors = sectorsFor(this.channel.size());
+        return fileSectors - this.used.get(0, (int) fileSectors).cardinality();
+    }
+
+    public synchronized void sync() throws IOException {
+        this.channel.force(false);
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        header.putInt(MAGIC).put((byte) BsoUtils.BSO_VERSION).put((byte) 0).putShort((short) 0).putInt(SECTOR_SIZE).putInt(this.keys.length).flip();
+        this.writeAt(header, 0);
+    }
+
+    private ByteBuffer readAt(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated BSO store");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private void writeAt(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += this.channel.write(buffer, position);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.channel.close();
+    }
+}
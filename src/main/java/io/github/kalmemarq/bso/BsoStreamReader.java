@@ -0,0 +1,269 @@
+package io.github.kalmemarq.bso;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class BsoStreamReader implements AutoCloseable {
+    private final ByteBufferDataInput in;
+    private int[] remaining = new int[16];
+    private int[] mapAds = new int[16];
+    private int depth;
+    private boolean started;
+
+    private BsoToken token;
+    private String key;
+    private int id;
+    private int ad;
+    private boolean pending;
+    private BsoNode value;
+    private long longValue;
+    private double doubleValue;
+
+    public BsoStreamReader(Path path) throws IOException {
+        this(BsoUtils.openSeekableInput(path));
+    }
+
+    public BsoStreamReader(InputStream input) throws IOException {
+        this(BsoUtils.openInput(input));
+    }
+
+    public BsoStreamReader(ByteBuffer buffer) throws IOException {
+        this(BsoUtils.openInput(new ByteBufferInputStream(buffer)));
+    }
+
+    BsoStreamReader(ByteBufferDataInput in) {
+        this.in = in;
+    }
+
+    public BsoToken nextToken() throws IOException {
+        if (this.pending) {
+            BsoUtils.skipBsoNode(this.in, this.id, this.ad);
+            this.pending = false;
+        }
+
+        this.key = null;
+        this.value = null;
+
+        if (this.depth == 0) {
+            if (this.started) {
+                return this.token = null;
+            }
+            this.started = true;
+        } else {
+            int top = this.depth - 1;
+            if (this.remaining[top] == 0) {
+                return this.token = this.pop();
+            } else if (this.remaining[top] > 0) {
+                --this.remaining[top];
+            }
+        }
+
+        long adid = BsoUtils.readADID(this.in);
+        if (adid == 0 && this.depth > 0 && this.remaining[this.depth - 1] < 0) {
+            return this.token = this.pop();
+        }
+        this.ad = (int) ((adid >> 32L) & 0xFFFFFFFFL);
+        this.id = (int) (adid & 0xFFFFFFFFL);
+
+        if (this.depth > 0 && this.mapAds[this.depth - 1] >= 0) {
+            this.key = BsoUtils.readBsoMapKey(this.in, this.mapAds[this.depth - 1]);
+        }
+
+        return this.token = switch (this.id) {
+            case 0b0001 -> {
+                if (this.ad == 0b0010 || this.ad == 0b0110) {
+                    this.longValue = this.ad == 0b0110 ? 1 : 0;
+                    this.doubleValue = this.longValue;
+                    yield BsoToken.BOOL;
+                }
+                this.readNumber();
+                yield BsoToken.INTEGER;
+            }
+            case 0b0010, 0b0011, 0b0100 -> {
+                this.readNumber();
+                yield BsoToken.INTEGER;
+            }
+            case 0b0101 -> {
+                this.doubleValue = this.ad == 0 ? this.in.readFloat() : this.in.readDouble();
+                this.longValue = (long) this.doubleValue;
+                yield BsoToken.FLOAT;
+            }
+            case 0b0110 -> {
+                this.pending = true;
+                yield BsoToken.STRING;
+            }
+            case 0b0111 -> {
+                this.push(BsoUtils.readLength(this.in, this.ad), this.ad);
+                yield BsoToken.START_MAP;
+            }
+            case 0b1000 -> {
+                this.push(BsoUtils.readLength(this.in, this.ad), -1);
+                yield BsoToken.START_LIST;
+            }
+            case 0b1001, 0b1010, 0b1011, 0b1100, 0b1101 -> {
+                this.pending = true;
+                yield BsoToken.ARRAY;
+            }
+            default -> {
+                this.pending = true;
+                yield BsoToken.CUSTOM;
+            }
+        };
+    }
+
+    private void readNumber() throws IOException {
+        boolean unsigned = (this.ad & 0b0001) != 0;
+        int width = switch (this.id) {
+            case 0b0001 -> 1;
+            case 0b0010 -> (this.ad & 0b0010) != 0 ? 1 : 2;
+            case 0b0011 -> (this.ad & 0b0010) != 0 ? 1 : (this.ad & 0b0100) != 0 ? 2 : 4;
+            default -> switch (this.ad & 0b0110) {
+                case 0b0010 -> 1;
+                case 0b0100 -> 2;
+                case 0b0110 -> 4;
+                default -> 8;
+            };
+        };
+
+        this.longValue = switch (width) {
+            case 1 -> unsigned ? this.in.readUnsignedByte() : this.in.readByte();
+            case 2 -> unsigned ? this.in.readUnsignedShort() : this.in.readShort();
+            case 4 -> unsigned ? this.in.readInt() & 0xFFFFFFFFL : this.in.readInt();
+            default -> this.in.readLong();
+        };
+        this.doubleValue = this.longValue;
+    }
+
+    private void push(int length, int mapAd) {
+        if (this.depth == this.remaining.length) {
+            this.remaining = Arrays.copyOf(this.remaining, this.depth * 2);
+            this.mapAds = Arrays.copyOf(this.mapAds, this.depth * 2);
+        }
+        this.remaining[this.depth] = length;
+        this.mapAds[this.depth] = mapAd;
+        ++this.depth;
+    }
+
+    private BsoToken pop() {
+        --this.depth;
+        return this.mapAds[this.depth] >= 0 ? BsoToken.END_MAP : BsoToken.END_LIST;
+    }
+
+    public void skipChildren() throws IOException {
+        if (this.token != BsoToken.START_MAP && this.token != BsoToken.START_LIST) return;
+
+        int top = this.depth - 1;
+        int mapAd = this.mapAds[top];
+        for (int i = this.remaining[top]; i != 0; --i) {
+            long adid = BsoUtils.readADID(this.in);
+            if (adid == 0 && i < 0) break;
+            if (mapAd >= 0) {
+                BsoUtils.readBsoMapKey(this.in, mapAd);
+            }
+            BsoUtils.skipBsoNode(this.in, (int) (adid & 0xFFFFFFFFL), (int) ((adid >> 32L) & 0xFFFFFFFFL));
+        }
+        this.key = null;
+        this.token = this.pop();
+    }
+
+    public BsoNode readTree() throws IOException {
+        if (this.token == BsoToken.START_MAP || this.token == BsoToken.START_LIST) {
+            int top = this.depth - 1;
+            int mapAd = this.mapAds[top];
+            int length = this.remaining[top];
+
+            BsoNode node;
+            if (mapAd >= 0) {
+                Map<String, BsoNode> map = new CompactMap(this.in.shapes(), Math.max(length, 0));
+                for (int i = 0; length < 0 || i < length; ++i) {
+                    long adid = BsoUtils.readADID(this.in);
+                    if (adid == 0 && length < 0) break;
+                    String key = BsoUtils.readBsoMapKey(this.in, mapAd);
+                    map.put(key, BsoUtils.readBsoNode(this.in, (int) (adid & 0xFFFFFFFFL), (int) ((adid >> 32L) & 0xFFFFFFFFL)));
+                }
+                node = new BsoMap(map);
+            } else {
+                List<BsoNode> list = length < 0 ? new ArrayList<>() : new ArrayList<>(length);
+                for (int i = 0; length < 0 || i < length; ++i) {
+                    long adid = BsoUtils.readADID(this.in);
+                    if (adid == 0 && length < 0) break;
+                    list.add(BsoUtils.readBsoNode(this.in, (int) (adid & 0xFFFFFFFFL), (int) ((adid >> 32L) & 0xFFFFFFFFL)));
+                }
+                node = new BsoList(list);
+            }
+            this.token = this.pop();
+            return node;
+        }
+
+        return this.nodeValue();
+    }
+
+    public BsoToken currentToken() {
+        return this.token;
+    }
+
+    public String currentKey() {
+        return this.key;
+    }
+
+    public int currentId() {
+        return this.id;
+    }
+
+    public boolean isUnsigned() {
+        return this.token == BsoToken.INTEGER && (this.ad & 0b0001) != 0;
+    }
+
+    public int depth() {
+        return this.depth;
+    }
+
+    public boolean booleanValue() {
+        return this.longValue != 0;
+    }
+
+    public int intValue() {
+        return (int) this.longValue;
+    }
+
+    public long longValue() {
+        return this.longValue;
+    }
+
+    public float floatValue() {
+        return (float) this.doubleValue;
+    }
+
+    public double doubleValue() {
+        return this.doubleValue;
+    }
+
+    public String stringValue() throws IOException {
+        if (this.token != BsoToken.STRING) {
+            throw new IllegalStateException("Current token is " + this.token + ", not STRING");
+        }
+        return this.nodeValue().asString();
+    }
+
+    public BsoNode nodeValue() throws IOException {
+        if (this.value == null) {
+            if (!this.pending) {
+                throw new IllegalStateException("Current " + this.token + " token has no value node");
+            }
+            this.pending = false;
+            this.value = BsoUtils.readBsoNode(this.in, this.id, this.ad);
+        }
+        return this.value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+}
@@ -0,0 +1,252 @@
+package io.github.kalmemarq.bso;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class BsoStreamWriter implements AutoCloseable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAP_ID = 0b0111;
+    private static final int LIST_ID = 0b1000;
+
+    private final WritableByteChannel channel;
+    private final FileChannel seekable;
+    private final long base;
+    private ByteBuffer buffer;
+    private ByteBufferDataOutput out;
+    private long flushed;
+
+    private long[] lengthSlots = new long[16];
+    private int[] counts = new int[16];
+    private boolean[] maps = new boolean[16];
+    private int depth;
+    private boolean rootWritten;
+    private String key;
+
+    public BsoStreamWriter(Path path) throws IOException {
+        this(path, BsoUtils.Endianess.BIG);
+    }
+
+    public BsoStreamWriter(Path path, BsoUtils.Endianess endianess) throws IOException {
+        this(FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), endianess);
+    }
+
+    public BsoStreamWriter(OutputStream output) throws IOException {
+        this(output, BsoUtils.Endianess.BIG);
+    }
+
+    public BsoStreamWriter(OutputStream output, BsoUtils.Endianess endianess) throws IOException {
+        this(Channels.newChannel(output), endianess);
+    }
+
+    public BsoStreamWriter(WritableByteChannel channel, BsoUtils.Endianess endianess) throws IOException {
+        this.channel = channel;
+        this.seekable = channel instanceof FileChannel fc ? fc : null;
+        this.base = this.seekable != null ? this.seekable.position() : 0;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(endianess == BsoUtils.Endianess.BIG ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        this.out = new ByteBufferDataOutput(this.buffer);
+        this.out.write(BsoUtils.BSO_VERSION << 4 | (endianess == BsoUtils.Endianess.BIG ? 0 : 0b0100));
+    }
+
+    public BsoStreamWriter beginMap() throws IOException {
+        this.beginContainer(MAP_ID);
+        return this;
+    }
+
+    public BsoStreamWriter endMap() throws IOException {
+        this.endContainer(true);
+        return this;
+    }
+
+    public BsoStreamWriter beginList() throws IOException {
+        this.beginContainer(LIST_ID);
+        return this;
+    }
+
+    public BsoStreamWriter endList() throws IOException {
+        this.endContainer(false);
+        return this;
+    }
+
+    public BsoStreamWriter key(String key) {
+        if (this.depth == 0 || !this.maps[this.depth - 1]) {
+            throw new IllegalStateException("Keys can only be written inside a map");
+        }
+        if (this.key != null) {
+            throw new IllegalStateException("Key '" + this.key + "' has no value");
+        }
+        this.key = key;
+        return this;
+    }
+
+    public BsoStreamWriter writeBool(boolean value) throws IOException {
+        return this.writeNode(BsoBool.of(value));
+    }
+
+    public BsoStreamWriter writeByte(int value) throws IOException {
+        return this.writeNode(BsoByte.of((byte) value));
+    }
+
+    public BsoStreamWriter writeUByte(int value) throws IOException {
+        return this.writeNode(BsoUByte.of((byte) value));
+    }
+
+    public BsoStreamWriter writeShort(int value) throws IOException {
+        return this.writeNode(BsoShort.of((short) value));
+    }
+
+    public BsoStreamWriter writeUShort(int value) throws IOException {
+        return this.writeNode(BsoUShort.of((short) value));
+    }
+
+    public BsoStreamWriter writeInt(int value) throws IOException {
+        return this.writeNode(BsoInt.of(value));
+    }
+
+    public BsoStreamWriter writeUInt(long value) throws IOException {
+        return this.writeNode(BsoUInt.of((int) value));
+    }
+
+    public BsoStreamWriter writeLong(long value) throws IOException {
+        return this.writeNode(BsoLong.of(value));
+    }
+
+    public BsoStreamWriter writeULong(long value) throws IOException {
+        return this.writeNode(BsoULong.of(value));
+    }
+
+    public BsoStreamWriter writeFloat(float value) throws IOException {
+        return this.writeNode(new BsoFloat(value));
+    }
+
+    public BsoStreamWriter writeDouble(double value) throws IOException {
+        return this.writeNode(new BsoDouble(value));
+    }
+
+    public BsoStreamWriter writeString(String value) throws IOException {
+        return this.writeNode(new BsoString(value));
+    }
+
+    public BsoStreamWriter writeNode(BsoNode node) throws IOException {
+        int ad = BsoUtils.getBsoNodeAd(node);
+        int id = BsoUtils.getBsoNodeId(node);
+        long size = BsoUtils.getBsoNodeSize(node, ad);
+
+        this.beginEntry(ad, id);
+        this.ensure(size);
+        BsoUtils.writeBsoNode(this.out, node, ad);
+        return this;
+    }
+
+    private void beginContainer(int id) throws IOException {
+        int ad = (this.seekable != null ? 0b0100 : 0b0110) | (id == MAP_ID ? 0b1000 : 0);
+        this.beginEntry(ad, id);
+
+        if (this.depth == this.counts.length) {
+            this.lengthSlots = Arrays.copyOf(this.lengthSlots, this.depth * 2);
+            this.counts = Arrays.copyOf(this.counts, this.depth * 2);
+            this.maps = Arrays.copyOf(this.maps, this.depth * 2);
+        }
+
+        this.lengthSlots[this.depth] = this.seekable != null ? this.flushed + this.buffer.position() : -1;
+        this.counts[this.depth] = 0;
+        this.maps[this.depth] = id == MAP_ID;
+        ++this.depth;
+
+        if (this.seekable != null) {
+            this.ensure(Integer.BYTES);
+            this.out.writeInt(0);
+        }
+    }
+
+    private void endContainer(boolean map) throws IOException {
+        if (this.depth == 0 || this.maps[this.depth - 1] != map) {
+            throw new IllegalStateException("No open " + (map ? "map" : "list") + " to end");
+        }
+        if (this.key != null) {
+            throw new IllegalStateException("Key '" + this.key + "' has no value");
+        }
+
+        --this.depth;
+        long slot = this.lengthSlots[this.depth];
+        if (slot < 0) {
+            this.ensure(1);
+            this.out.write(0);
+        } else if (slot >= this.flushed) {
+            this.buffer.putInt((int) (slot - this.flushed), this.counts[this.depth]);
+        } else {
+            ByteBuffer count = ByteBuffer.allocate(Integer.BYTES).order(this.buffer.order()).putInt(0, this.counts[this.depth]);
+            long position = this.base + slot;
+            while (count.hasRemaining()) {
+                position += this.seekable.write(count, position);
+            }
+        }
+    }
+
+    // Every check comes before anything is counted or written, so a caught IllegalStateException leaves the document intact
+    private void beginEntry(int ad, int id) throws IOException {
+        boolean inMap = this.depth > 0 && this.maps[this.depth - 1];
+        if (inMap && this.key == null) {
+            throw new IllegalStateException("Map entries need a key");
+        }
+
+        if (this.depth == 0) {
+            if (this.rootWritten) {
+                throw new IllegalStateException("A document has a single root node");
+            }
+            this.rootWritten = true;
+        } else {
+            ++this.counts[this.depth - 1];
+        }
+
+        this.ensure(4);
+        BsoUtils.writeADID(this.out, ad, id);
+
+        if (inMap) {
+            int length = BsoUtils.getUtf8Length(this.key);
+            this.ensure(length + 5L);
+            this.out.writeVarInt(length);
+            this.out.writeUtf8(this.key);
+            this.key = null;
+        }
+    }
+
+    private void ensure(long size) throws IOException {
+        if (this.buffer.remaining() >= size) return;
+        this.flush();
+        if (this.buffer.capacity() < size) {
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("Node of " + size + " bytes is too large to be buffered");
+            }
+            this.buffer = ByteBuffer.allocate((int) size).order(this.buffer.order());
+            this.out = new ByteBufferDataOutput(this.buffer);
+        }
+    }
+
+    public void flush() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.flushed += this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (this.depth != 0) {
+                throw new IllegalStateException(this.depth + " containers are still open");
+            }
+            this.flush();
+        } finally {
+            this.channel.close();
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package io.github.kalmemarq.bso;
 
 public record BsoString(String value) implements BsoPrimitive {
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.STRING;
+    }
+
     @Override
     public String asString(String defaultValue) {
         return this.value;
@@ -0,0 +1,14 @@
+package io.github.kalmemarq.bso;
+
+public enum BsoToken {
+    START_MAP,
+    END_MAP,
+    START_LIST,
+    END_LIST,
+    BOOL,
+    INTEGER,
+    FLOAT,
+    STRING,
+    ARRAY,
+    CUSTOM
+}
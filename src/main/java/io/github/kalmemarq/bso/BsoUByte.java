@@ -1,6 +1,24 @@
 package io.github.kalmemarq.bso;
 
 public record BsoUByte(byte value) implements BsoPrimitive {
+    private static final BsoUByte[] CACHE = new BsoUByte[256];
+
+    static {
+        for (int i = 0; i < CACHE.length; ++i) {
+            CACHE[i] = new BsoUByte((byte) i);
+        }
+    }
+
+    // Every value is cached, like Byte.valueOf
+    public static BsoUByte of(byte value) {
+        return CACHE[value & 0xFF];
+    }
+
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.UBYTE;
+    }
+
     @Override
     public Number asNumber(Number defaultValue) {
         return this.value & 0xFF;
@@ -1,6 +1,24 @@
 package io.github.kalmemarq.bso;
 
 public record BsoUInt(int value) implements BsoPrimitive {
+    private static final BsoUInt[] CACHE = new BsoUInt[256];
+
+    static {
+        for (int i = 0; i < CACHE.length; ++i) {
+            CACHE[i] = new BsoUInt(i);
+        }
+    }
+
+    // Values in 0..255 are shared instances
+    public static BsoUInt of(int value) {
+        return value >= 0 && value <= 255 ? CACHE[value] : new BsoUInt(value);
+    }
+
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.UINT;
+    }
+
     @Override
     public Number asNumber(Number defaultValue) {
         return this.value & 0xFFFFFFFFL;
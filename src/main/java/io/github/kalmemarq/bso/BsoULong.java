@@ -1,6 +1,24 @@
 package io.github.kalmemarq.bso;
 
 public record BsoULong(long value) implements BsoPrimitive {
+    private static final BsoULong[] CACHE = new BsoULong[256];
+
+    static {
+        for (int i = 0; i < CACHE.length; ++i) {
+            CACHE[i] = new BsoULong(i);
+        }
+    }
+
+    // Values in 0..255 are shared instances
+    public static BsoULong of(long value) {
+        return value >= 0 && value <= 255 ? CACHE[(int) value] : new BsoULong(value);
+    }
+
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.ULONG;
+    }
+
     @Override
     public Number asNumber(Number defaultValue) {
         return this.value;
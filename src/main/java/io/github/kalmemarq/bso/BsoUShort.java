@@ -1,6 +1,24 @@
 package io.github.kalmemarq.bso;
 
 public record BsoUShort(short value) implements BsoPrimitive {
+    private static final BsoUShort[] CACHE = new BsoUShort[256];
+
+    static {
+        for (int i = 0; i < CACHE.length; ++i) {
+            CACHE[i] = new BsoUShort((short) i);
+        }
+    }
+
+    // Values in 0..255 are shared instances
+    public static BsoUShort of(short value) {
+        return value >= 0 && value <= 255 ? CACHE[value] : new BsoUShort(value);
+    }
+
+    @Override
+    public BsoNodeType nodeType() {
+        return BsoNodeType.USHORT;
+    }
+
     @Override
     public Number asNumber(Number defaultValue) {
         return this.value;
@@ -3,23 +3,44 @@ package io.github.kalmemarq.bso;
 import io.github.kalmemarq.bso.BsoCustom.BsoCustomType;
 
 import java.io.*;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.Executor;
 
 public class BsoUtils {
-    private static final int BSO_VERSION = 0;
+    static final int BSO_VERSION = 0;
     private static final int UBYTE_MAX = Byte.MAX_VALUE * 2 + 1;
     private static final int USHORT_MAX = Short.MAX_VALUE * 2 + 1;
     private static final long UINT_MAX = Integer.MAX_VALUE * 2L + 1L;
+    static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    private static final long[] SHORT_ADIDS = new long[256];
+
+    static {
+        for (int b = 0; b < 256; ++b) {
+            SHORT_ADIDS[b] = (b & 0b1000_0000) == 0 ? (long) (b >> 4) << 32L | (b & 0b1111) : -1;
+        }
+    }
 
     private static final Map<Integer, BsoCustomType<?>> customTypes = new HashMap<>();
     protected static final Map<Class<?>, BsoCustomType<?>> customTypeByClazz = new HashMap<>();
     protected static final Map<String, BsoCustomType<?>> customTypeByName = new HashMap<>();
+    private static final Map<Integer, BsoCodec> codecs = new HashMap<>();
+
+    static {
+        registerCodec(BsoCodec.GZIP);
+        registerCodec(BsoCodec.DEFLATE);
+        registerCodec(BsoCodec.LZ);
+    }
 
     public static <T> BsoCustomType<T> registerCustomType(BsoCustomType<T> type) {
         customTypes.put(type.getId(), type);
@@ -39,11 +60,29 @@ public class BsoUtils {
         customTypes.clear();
     }
 
+    public static BsoCodec registerCodec(BsoCodec codec) {
+        if (codec.getId() < 0 || codec.getId() >= BlockCompression.FRAMED) {
+            throw new IllegalArgumentException("Codec id " + codec.getId() + " does not fit in 7 bits");
+        }
+        if (codec.getId() == BsoCodec.GZIP_ID && codec != BsoCodec.GZIP) {
+            throw new IllegalArgumentException("Codec id " + BsoCodec.GZIP_ID + " is reserved for gzip");
+        }
+        codecs.put(codec.getId(), codec);
+        return codec;
+    }
+
+    public static BsoCodec unregisterCodec(BsoCodec codec) {
+        codecs.remove(codec.getId(), codec);
+        return codec;
+    }
+
     /*
        bin -> str
             java -jar bso.jar b2s X Y --indent 3
        str -> bin
             java -jar bso.jar s2b X Y --le
+       dir -> pack
+            java -jar bso.jar pack X Y
      */
     static void main(String[] args) throws IOException {
         if (args.length >= 3) {
@@ -67,6 +106,21 @@ public class BsoUtils {
                 }
 
                 BsoUtils.write(outPath, SBsoUtils.read(inPath), endianess);
+            } else if ("pack".equals(args[0])) {
+                Path inPath = Path.of(args[1]);
+                Path outPath = Path.of(args[2]);
+
+                List<Path> files;
+                try (var stream = Files.walk(inPath)) {
+                    files = stream.filter(Files::isRegularFile).filter(file -> file.getFileName().toString().endsWith(".bso")).sorted().toList();
+                }
+
+                try (BsoPackWriter writer = new BsoPackWriter(outPath)) {
+                    for (Path file : files) {
+                        String name = inPath.relativize(file).toString().replace(File.separatorChar, '/');
+                        writer.add(name.substring(0, name.length() - ".bso".length()), file);
+                    }
+                }
             } else {
                 throw new IllegalArgumentException("Unknown command " + args[0]);
             }
@@ -83,178 +137,593 @@ public class BsoUtils {
     }
 
     public static void write(Path path, BsoNode node, Endianess endianess) throws IOException {
-        try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(path))) {
-            output.write(BSO_VERSION << 4 | (endianess == Endianess.BIG ? 0 : 0b0100));
+        write(path, node, new BsoWriteOptions(endianess, false));
+    }
+
+    public static void write(Path path, BsoNode node, BsoWriteOptions options) throws IOException {
+        Endianess endianess = options.endianess();
+        BsoCodec codec = options.codec();
+        KeyTable keys = options.keyTable() ? KeyTable.collect(node) : null;
+        long size = encodedSize(node, keys, options.fieldIndex());
+        if (size > MAX_ARRAY_SIZE) {
+            // streamed, and only the buffer output knows how to write the key table and the field index
+            if (keys != null || options.fieldIndex() > 0) {
+                throw new IllegalArgumentException("Encoded node is too large for a key table or field index (" + size + " bytes)");
+            }
+            try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(path))) {
+                file.write(BSO_VERSION << 4 | (endianess == Endianess.BIG ? 0 : 0b0100) | (codec != null ? 0b1000 : 0));
+                if (codec != null) {
+                    writeCodecId(file, options);
+                }
 
-            DataOutput out = endianess == Endianess.BIG ? output : new LittleEndianDataOutput(output);
+                try (DataOutputStream output = new DataOutputStream(codec == null ? file : new BufferedOutputStream(compress(file, options)))) {
+                    DataOutput out = endianess == Endianess.BIG ? output : new LittleEndianDataOutput(output);
 
+                    int ad = getBsoNodeAd(node);
+                    int id = getBsoNodeId(node);
+                    writeADID(out, ad, id);
+                    writeBsoNode(out, node, ad);
+                }
+            }
+            return;
+        }
+
+        byte[] bytes = toByteArray(node, options, keys, (int) size);
+        if (codec != null) {
+            try (OutputStream file = Files.newOutputStream(path)) {
+                writeCompressed(file, bytes, options);
+            }
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    public static void writeCompressed(Path path, BsoNode node, Endianess endianess) throws IOException {
+        writeCompressed(path, node, new BsoWriteOptions(endianess, false));
+    }
+
+    public static void writeCompressed(Path path, BsoNode node, BsoWriteOptions options) throws IOException {
+        write(path, node, options.codec() != null ? options : options.withCodec(BsoCodec.GZIP));
+    }
+
+    private static void writeCompressed(OutputStream out, byte[] document, BsoWriteOptions options) throws IOException {
+        out.write(document[0] | 0b1000);
+        writeCodecId(out, options);
+
+        try (OutputStream output = compress(out, options)) {
+            output.write(document, 1, document.length - 1);
+        }
+    }
+
+    private static void writeCodecId(OutputStream out, BsoWriteOptions options) throws IOException {
+        int id = options.codec().getId();
+        if (options.blockSize() > 0) {
+            out.write(BlockCompression.FRAMED | id);
+        } else if (id != BsoCodec.GZIP_ID) {
+            out.write(id);
+        }
+    }
+
+    private static OutputStream compress(OutputStream out, BsoWriteOptions options) throws IOException {
+        BsoCodec codec = options.codec();
+        int level = options.level() < 0 ? codec.getDefaultLevel() : options.level();
+        if (options.blockSize() > 0) {
+            return new BlockCompression.BlockOutputStream(out, codec, level, options.executor(), options.blockSize());
+        }
+        return codec.compress(out, level);
+    }
+
+    public static byte[] toByteArray(BsoNode node) {
+        return toByteArray(node, Endianess.BIG);
+    }
+
+    public static byte[] toByteArray(BsoNode node, Endianess endianess) {
+        return toByteArray(node, new BsoWriteOptions(endianess, false));
+    }
+
+    public static byte[] toByteArray(BsoNode node, BsoWriteOptions options) {
+        KeyTable keys = options.keyTable() ? KeyTable.collect(node) : null;
+        long size = encodedSize(node, keys, options.fieldIndex());
+        if (size > MAX_ARRAY_SIZE) {
+            throw new IllegalArgumentException("Encoded node is too large for a byte array (" + size + " bytes)");
+        }
+
+        byte[] bytes = toByteArray(node, options, keys, (int) size);
+        if (options.codec() == null) {
+            return bytes;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+        try {
+            writeCompressed(out, bytes, options);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] toByteArray(BsoNode node, BsoWriteOptions options, KeyTable keys, int size) {
+        byte[] bytes = new byte[size];
+        encode(new ByteBufferDataOutput(bytes, options.endianess() == Endianess.BIG ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN), node, options, keys, size);
+        return bytes;
+    }
+
+    // Writes the uncompressed document, header included, into a buffer with exactly size bytes left for it
+    static void encode(ByteBufferDataOutput out, BsoNode node, BsoWriteOptions options, KeyTable keys, int size) {
+        int start = out.position();
+        boolean fieldIndex = options.fieldIndex() > 0 && node instanceof BsoMap;
+        out.write(BSO_VERSION << 4 | (options.endianess() == Endianess.BIG ? 0 : 0b0100) | (keys != null ? 0b0010 : 0) | (fieldIndex ? 0b0001 : 0));
+        if (keys != null) {
+            keys.write(out);
+            out.setKeyTable(keys);
+        }
+
+        try {
             int ad = getBsoNodeAd(node);
             int id = getBsoNodeId(node);
             writeADID(out, ad, id);
             writeBsoNode(out, node, ad);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (fieldIndex) {
+            FieldIndex.write(out, start, options.fieldIndex());
+        }
+
+        if (out.position() - start != size) {
+            throw new IllegalStateException("Encoded " + (out.position() - start) + " bytes but expected " + size);
         }
     }
 
-    public static void writeCompressed(Path path, BsoNode node, Endianess endianess) throws IOException {
-        try (OutputStream outS = Files.newOutputStream(path)) {
-            outS.write((BSO_VERSION << 4) | 0b1000);
+    public static long encodedSize(BsoNode node) {
+        return encodedSize(node, null, 0);
+    }
 
-            try (DataOutputStream output = new DataOutputStream(new GZIPOutputStream(outS))) {
-                DataOutput out = endianess == Endianess.BIG ? output : new LittleEndianDataOutput(output);
+    public static long encodedSize(BsoNode node, BsoWriteOptions options) {
+        return encodedSize(node, options.keyTable() ? KeyTable.collect(node) : null, options.fieldIndex());
+    }
 
-                int ad = getBsoNodeAd(node);
-                int id = getBsoNodeId(node);
-                writeADID(out, ad, id);
-                writeBsoNode(out, node, ad);
-            }
-        }
+    static long encodedSize(BsoNode node, KeyTable keys, int fieldIndex) {
+        int ad = getBsoNodeAd(node);
+        int id = getBsoNodeId(node);
+        return 1 + (keys != null ? keys.size() : 0) + getADIDSize(ad, id) + getBsoNodeSize(node, typeOf(node), ad, keys) + FieldIndex.size(node, fieldIndex);
     }
 
-    private static void writeADID(DataOutput out, int ad, int id) throws IOException {
-        if (id < 16) { // 0AAA TTTT
-            out.write((ad & 0b0111) << 4 | (id & 0b1111));
-        } else if (id < 256) { // 10XX XXXX TTTT TTTT
-            out.write(0b1000_0000 | (ad & 0b0011_1111));
-            out.write(id & 0b1111_1111);
-        } else if (id < 4096) { // 110X XXXX XXXX TTTT TTTT TTTT
-            out.write(0b1100_0000 | ((ad >> 4) & 0b1_1111));
-            out.write((ad & 0b1111) | (id >> 8) & 0b1111);
+    static void writeADID(DataOutput out, int ad, int id) throws IOException {
+        if (id < 16 && ad < 8) { // 0AAA TTTT
+            out.write(ad << 4 | id);
+        } else if (id < 256 && ad < 64) { // 10AA AAAA TTTT TTTT
+            out.write(0b1000_0000 | ad);
+            out.write(id);
+        } else if (id < 4096 && ad < 512) { // 110A AAAA AAAA TTTT TTTT TTTT
+            out.write(0b1100_0000 | (ad >> 4));
+            out.write((ad & 0b1111) << 4 | (id >> 8));
             out.write(id & 0b1111_1111);
-        } else if (id < 262144) { // 1110 XXXX XXXX XXTT TTTT TTTT TTTT TTTT
-            out.write(0b1110_0000 | (ad >> 6) & 0b1111);
-            out.write(((ad & 0b11_1111) << 2) | (id >> 10) & 0b1111_1111);
+        } else if (id < 262144 && ad < 1024) { // 1110 AAAA AAAA AATT TTTT TTTT TTTT TTTT
+            out.write(0b1110_0000 | (ad >> 6));
+            out.write((ad & 0b11_1111) << 2 | (id >> 16));
             out.write((id >> 8) & 0b1111_1111);
             out.write(id & 0b1111_1111);
+        } else {
+            throw new IllegalArgumentException("Additional data " + ad + " and id " + id + " do not fit in an adid");
         }
     }
 
+    static int getADIDSize(int ad, int id) {
+        if (id < 16 && ad < 8) return 1;
+        else if (id < 256 && ad < 64) return 2;
+        else if (id < 4096 && ad < 512) return 3;
+        else return 4;
+    }
+
     public static BsoNode read(Path path) throws IOException {
-        try (InputStream inS = Files.newInputStream(path)) {
-            int header = inS.read();
-            int version = (header >> 4) & 0xF;
-            int config = header & 0xF;
+        return read(path, BsoReadOptions.DEFAULT);
+    }
 
-            if (version != 0) {
-                throw new IOException("Unknown BSO version " + version);
-            }
+    public static BsoNode read(Path path, BsoReadOptions options) throws IOException {
+        try (ByteBufferDataInput in = openInput(Files.newInputStream(path), options.executor())) {
+            return readRoot(in, options);
+        }
+    }
+
+    // Decodes only the values on the projection's paths; plain and indexed block-compressed files skip the rest without reading it
+    public static BsoNode read(Path path, BsoProjection projection) throws IOException {
+        try (ByteBufferDataInput in = openSeekableInput(path)) {
+            long adid = readADID(in);
+            int ad = (int) ((adid >> 32L) & 0xFFFFFFFFL);
+            int id = (int) (adid & 0xFFFFFFFFL);
+            return projection.read(in, id, ad);
+        }
+    }
+
+    static ByteBufferDataInput openInput(InputStream inS) throws IOException {
+        return openInput(inS, BsoReadOptions.DEFAULT.executor());
+    }
+
+    static ByteBufferDataInput openInput(InputStream inS, Executor executor) throws IOException {
+        try {
+            int config = readHeader(inS.read());
 
+            ByteOrder order = (config & 0b0100) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            return readKeyTable(new ByteBufferDataInput((config & 0b1000) == 0 ? inS : decompress(inS, executor), order), config);
+        } catch (IOException e) {
+            inS.close();
+            throw e;
+        }
+    }
+
+    // Plain and indexed block-compressed files are read through a seekable channel, so skipped values are never read or inflated
+    static ByteBufferDataInput openSeekableInput(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer head = ByteBuffer.allocate(2);
+            while (head.hasRemaining() && channel.read(head) >= 0);
+            int config = readHeader(head.position() > 0 ? head.get(0) & 0xFF : -1);
+
+            ByteOrder order = (config & 0b0100) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
             if ((config & 0b1000) == 0) {
-                try (DataInputStream input = new DataInputStream(inS)) {
-                    DataInput in = (config & 0b0100) == 0 ? input : new LittleEndianDataInput(input);
+                return readKeyTable(new ByteBufferDataInput(channel.position(1), order), config);
+            }
 
-                    long adid = readADID(in);
-                    int ad = (int) ((adid >> 32L) & 0xFFFFFFFFL);
-                    int id = (int) (adid & 0xFFFFFFFFL);
-                    return readBsoNode(in, id, ad);
+            int id = head.position() > 1 ? head.get(1) & 0xFF : 0;
+            BsoCodec codec = codecs.get(id & ~BlockCompression.FRAMED);
+            if ((id & BlockCompression.FRAMED) != 0 && codec != null) {
+                BlockCompression.SeekableBlockChannel blocks = BlockCompression.SeekableBlockChannel.open(channel, 2, codec);
+                if (blocks != null) {
+                    return readKeyTable(new ByteBufferDataInput(blocks, order), config);
                 }
-            } else {
-                try (DataInputStream input = new DataInputStream(new GZIPInputStream(inS) )) {
-                    DataInput in = (config & 0b0100) == 0 ? input : new LittleEndianDataInput(input);
+            }
+            return readKeyTable(new ByteBufferDataInput(decompress(Channels.newInputStream(channel.position(1)), BsoReadOptions.DEFAULT.executor()), order), config);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
 
-                    long adid = readADID(in);
-                    int ad = (int) ((adid >> 32L) & 0xFFFFFFFFL);
-                    int id = (int) (adid & 0xFFFFFFFFL);
-                    return readBsoNode(in, id, ad);
+    // Reads one value of the root map, or null when the root is not a map or has no such key
+    public static BsoNode readField(Path path, String key) throws IOException {
+        return readField(path, key, null);
+    }
+
+    // With a child, reads the value under that key in the map stored at key
+    public static BsoNode readField(Path path, String key, String child) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(2);
+            while (head.hasRemaining() && file.read(head, head.position()) >= 0);
+            int config = readHeader(head.position() > 0 ? head.get(0) & 0xFF : -1);
+
+            // plain and indexed block-compressed documents jump straight to the value through the field index
+            SeekableByteChannel channel = file;
+            long base = 0;
+            if ((config & 0b1000) != 0) {
+                int id = head.position() > 1 ? head.get(1) & 0xFF : 0;
+                BsoCodec codec = codecs.get(id & ~BlockCompression.FRAMED);
+                channel = (id & BlockCompression.FRAMED) != 0 && codec != null ? BlockCompression.SeekableBlockChannel.open(file, 2, codec) : null;
+                base = 1;
+            }
+
+            if ((config & 0b0001) != 0 && channel != null) {
+                ByteOrder order = (config & 0b0100) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+                List<FieldIndex.Field> fields = FieldIndex.read(channel, base, order);
+                if (fields != null) {
+                    int index = FieldIndex.find(fields, -1, key);
+                    if (index < 0) return null;
+
+                    String[] keys = null;
+                    if ((config & 0b0010) != 0) {
+                        keys = KeyTable.read(new ByteBufferDataInput(channel.position(1 - base), order, 4096));
+                    }
+
+                    int childIndex = child != null ? FieldIndex.find(fields, index, child) : -1;
+                    FieldIndex.Field field = fields.get(childIndex >= 0 ? childIndex : index);
+                    ByteBufferDataInput in = new ByteBufferDataInput(channel.position(field.offset() - base), order, (int) Math.clamp(field.length(), 1, 64 * 1024));
+                    in.setKeyTable(keys);
+                    BsoNode value = readBsoNode(in, field.id(), field.ad());
+                    return child == null || childIndex >= 0 ? value : value instanceof BsoMap map ? map.get(child) : null;
                 }
             }
         }
+
+        try (ByteBufferDataInput in = openSeekableInput(path)) {
+            long adid = readADID(in);
+            int ad = (int) ((adid >> 32L) & 0xFFFFFFFFL);
+            int id = (int) (adid & 0xFFFFFFFFL);
+            if (id != 0b0111) return null;
+
+            int length = readLength(in, ad);
+            for (int i = 0; length < 0 || i < length; ++i) {
+                long eadid = readADID(in);
+                if (eadid == 0 && length < 0) break;
+                int ead = (int) ((eadid >> 32L) & 0xFFFFFFFFL);
+                int eid = (int) (eadid & 0xFFFFFFFFL);
+
+                if (readBsoMapKey(in, ad).equals(key)) {
+                    BsoNode value = readBsoNode(in, eid, ead);
+                    return child == null ? value : value instanceof BsoMap map ? map.get(child) : null;
+                }
+                skipBsoNode(in, eid, ead);
+            }
+            return null;
+        }
+    }
+
+    public static BsoNode read(ByteBuffer buffer) throws IOException {
+        return read(buffer, BsoReadOptions.DEFAULT);
+    }
+
+    public static BsoNode read(ByteBuffer buffer, BsoReadOptions options) throws IOException {
+        int config = readHeader(buffer.hasRemaining() ? buffer.get() & 0xFF : -1);
+
+        ByteOrder order = (config & 0b0100) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        if ((config & 0b1000) == 0) {
+            return readRoot(readKeyTable(new ByteBufferDataInput(buffer.slice().order(order)), config), options);
+        } else {
+            try (ByteBufferDataInput in = new ByteBufferDataInput(decompress(new ByteBufferInputStream(buffer), options.executor()), order)) {
+                return readRoot(readKeyTable(in, config), options);
+            }
+        }
+    }
+
+    public static BsoNode read(byte[] bytes) throws IOException {
+        return read(ByteBuffer.wrap(bytes));
+    }
+
+    public static BsoNode read(byte[] bytes, BsoReadOptions options) throws IOException {
+        return read(ByteBuffer.wrap(bytes), options);
+    }
+
+    // Decodes over target, a tree from an earlier read, refilling its maps and lists and keeping unchanged values.
+    // Returns target when the root is the same kind of container, otherwise a new node.
+    public static BsoNode readInto(ByteBuffer buffer, BsoNode target) throws IOException {
+        int config = readHeader(buffer.hasRemaining() ? buffer.get() & 0xFF : -1);
+
+        ByteOrder order = (config & 0b0100) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        ByteBuffer body;
+        if ((config & 0b1000) == 0) {
+            body = buffer.slice();
+        } else {
+            try (InputStream input = decompress(new ByteBufferInputStream(buffer), BsoReadOptions.DEFAULT.executor())) {
+                body = ByteBuffer.wrap(input.readAllBytes());
+            }
+        }
+
+        ByteBufferDataInput in = readKeyTable(new ByteBufferDataInput(body.order(order)), config);
+        long adid = readADID(in);
+        int ad = (int) ((adid >> 32L) & 0xFFFFFFFFL);
+        int id = (int) (adid & 0xFFFFFFFFL);
+        return ReusingDecoder.read(in, id, ad, target);
+    }
+
+    public static BsoNode readInto(byte[] bytes, BsoNode target) throws IOException {
+        return readInto(ByteBuffer.wrap(bytes), target);
+    }
+
+    public static BsoNode readMapped(Path path) throws IOException {
+        return readMapped(path, BsoReadOptions.DEFAULT);
+    }
+
+    public static BsoNode readMapped(Path path, BsoReadOptions options) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(1);
+            int config = readHeader(channel.read(header, 0) == 1 ? header.get(0) & 0xFF : -1);
+
+            if ((config & 0b1000) != 0 || channel.size() > MAX_ARRAY_SIZE) {
+                return read(path, options);
+            }
+
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+                return read(segment.asByteBuffer(), options);
+            }
+        }
+    }
+
+    // Maps and lists are decoded as they are accessed. A lazy tree may be read from several threads at once.
+    public static BsoNode readLazy(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > MAX_ARRAY_SIZE) {
+                return read(path);
+            }
+            return readLazy(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static BsoNode readLazy(byte[] bytes) throws IOException {
+        return readLazy(ByteBuffer.wrap(bytes));
+    }
+
+    public static BsoNode readLazy(ByteBuffer buffer) throws IOException {
+        int config = readHeader(buffer.hasRemaining() ? buffer.get() & 0xFF : -1);
+
+        ByteOrder order = (config & 0b0100) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        ByteBuffer body;
+        if ((config & 0b1000) == 0) {
+            body = buffer.slice();
+        } else {
+            try (InputStream input = decompress(new ByteBufferInputStream(buffer), BsoReadOptions.DEFAULT.executor())) {
+                body = ByteBuffer.wrap(input.readAllBytes());
+            }
+        }
+
+        ByteBufferDataInput in = readKeyTable(new ByteBufferDataInput(body.order(order)), config);
+        long adid = readADID(in);
+        int ad = (int) ((adid >> 32L) & 0xFFFFFFFFL);
+        int id = (int) (adid & 0xFFFFFFFFL);
+        return readLazyNode(in, id, ad);
+    }
+
+    static BsoNode readLazyNode(ByteBufferDataInput in, int id, int ad) throws IOException {
+        return switch (id) {
+            case 0b0111 -> {
+                int length = readLength(in, ad);
+                yield new BsoMap(new LazyMap(in, length, ad));
+            }
+            case 0b1000 -> {
+                int length = readLength(in, ad);
+                yield new BsoList(new LazyList(in, length));
+            }
+            default -> readBsoNode(in, id, ad);
+        };
+    }
+
+    private static int readHeader(int header) throws IOException {
+        if (header < 0) {
+            throw new EOFException("Missing BSO header");
+        }
+
+        int version = (header >> 4) & 0xF;
+        if (version != 0) {
+            throw new IOException("Unknown BSO version " + version);
+        }
+
+        return header & 0xF;
+    }
+
+    private static InputStream decompress(InputStream in, Executor executor) throws IOException {
+        int id = in.read();
+        if (id < 0) {
+            throw new EOFException("Missing BSO codec id");
+        }
+
+        BsoCodec codec = codecs.get(id & ~BlockCompression.FRAMED);
+        if (codec == null) {
+            throw new IOException("Unknown BSO codec " + (id & ~BlockCompression.FRAMED));
+        }
+
+        if ((id & BlockCompression.FRAMED) != 0) {
+            return new BlockCompression.BlockInputStream(in, codec, executor);
+        }
+        if (id == BsoCodec.GZIP_ID) {
+            PushbackInputStream pushback = new PushbackInputStream(in, 1);
+            pushback.unread(id);
+            in = pushback;
+        }
+        return codec.decompress(in);
     }
 
-    private static long readADID(DataInput in) throws IOException {
-         int b = in.readUnsignedByte();
-         if ((b & 0b1000_0000) == 0) { // 0AAA TTTT
-             long ad = b >> 4;
-             long id = b & 0b1111;
-             return ad << 32L | id;
-         } else if ((b & 0b1100_0000) == 0b1000_0000) { // 10XX XXXX TTTT TTTT
-             int c = in.readUnsignedByte();
+    private static ByteBufferDataInput readKeyTable(ByteBufferDataInput in, int config) throws IOException {
+        if ((config & 0b0010) != 0) {
+            in.setKeyTable(KeyTable.read(in));
+        }
+        return in;
+    }
 
-             long ad = b & 0b0011_1111;
-             long id = c;
-             return ad << 32L | id;
-         } else if ((b & 0b1110_0000) == 0b1100_0000) { // 110X XXXX XXXX TTTT TTTT TTTT
-             int c = in.readUnsignedByte();
-             int d = in.readUnsignedByte();
+    private static BsoNode readRoot(ByteBufferDataInput in, BsoReadOptions options) throws IOException {
+        if (options.keyCacheSize() > 0) {
+            in.setKeyCache(new KeyCache(options.keyCacheSize()));
+        }
 
-             long ad = (b & 0b1_1111) << 4 | d >> 4;
-             long id = (c & 0xF) << 8 | d;
-             return ad << 32L | id;
-         } else if ((b & 0b1111_0000) == 0b1110_0000) { // 1110 XXXX XXXX XXTT TTTT TTTT TTTT TTTT (0xFF 0x3) (0x3 0xFF 0xFF)
-             int c = in.readUnsignedByte();
-             int d = in.readUnsignedByte();
-             int e = in.readUnsignedByte();
+        long adid = readADID(in);
+        int ad = (int) ((adid >> 32L) & 0xFFFFFFFFL);
+        int id = (int) (adid & 0xFFFFFFFFL);
+        return readBsoNode(in, id, ad);
+    }
 
-             long ad = (b & 0b1111) << 6 | (c & 0b1111_1100) >> 2;
-             long id = (c & 0b11) << 16 | d << 8 | e;
-             return ad << 32L | id;
-         }
+    static long readADID(DataInput in) throws IOException {
+        int b = in.readUnsignedByte();
+        long adid = SHORT_ADIDS[b];
+        if (adid >= 0) { // 0AAA TTTT
+            return adid;
+        } else if ((b & 0b1100_0000) == 0b1000_0000) { // 10AA AAAA TTTT TTTT
+            int c = in.readUnsignedByte();
+
+            long ad = b & 0b0011_1111;
+            long id = c;
+            return ad << 32L | id;
+        } else if ((b & 0b1110_0000) == 0b1100_0000) { // 110A AAAA AAAA TTTT TTTT TTTT
+            int c = in.readUnsignedByte();
+            int d = in.readUnsignedByte();
+
+            long ad = (b & 0b1_1111) << 4 | c >> 4;
+            long id = (c & 0xF) << 8 | d;
+            return ad << 32L | id;
+        } else if ((b & 0b1111_0000) == 0b1110_0000) { // 1110 AAAA AAAA AATT TTTT TTTT TTTT TTTT
+            int c = in.readUnsignedByte();
+            int d = in.readUnsignedByte();
+            int e = in.readUnsignedByte();
+
+            long ad = (b & 0b1111) << 6 | (c & 0b1111_1100) >> 2;
+            long id = (c & 0b11) << 16 | d << 8 | e;
+            return ad << 32L | id;
+        }
 
-         throw new IOException("Unknown adid");
+        throw new IOException("Unknown adid");
     }
 
     public static BsoNode readBsoNode(DataInput in, int id, int ad) throws IOException {
         switch (id) {
             case 0b0001 -> {
                 if (ad == 0b0000)
-                    return new BsoByte(in.readByte());
+                    return BsoByte.of(in.readByte());
                 if (ad == 0b0001)
-                    return new BsoUByte((byte) in.readUnsignedByte());
+                    return BsoUByte.of((byte) in.readUnsignedByte());
                 if (ad == 0b0010)
-                    return new BsoBool(false);
+                    return BsoBool.FALSE;
                 if (ad == 0b0110)
-                    return new BsoBool(true);
+                    return BsoBool.TRUE;
 
                 throw new IOException("Unknown additional data");
             }
             case 0b0010 -> {
                 if ((ad & 0b0001) == 0) {
-                    return new BsoShort((ad & 0b0010) == 0 ? in.readShort() : in.readByte());
+                    return BsoShort.of((ad & 0b0010) == 0 ? in.readShort() : in.readByte());
                 } else {
-                    return new BsoUShort((ad & 0b0010) == 0 ? (short) in.readUnsignedShort() : (short) in.readUnsignedByte());
+                    return BsoUShort.of((ad & 0b0010) == 0 ? (short) in.readUnsignedShort() : (short) in.readUnsignedByte());
                 }
             }
             case 0b0011 -> {
                 if ((ad & 0b0001) == 0) {
                     if ((ad & 0b0010) != 0)
-                        return new BsoInt(in.readByte());
+                        return BsoInt.of(in.readByte());
                     else if ((ad & 0b0100) != 0)
-                        return new BsoInt(in.readShort());
+                        return BsoInt.of(in.readShort());
                     else
-                        return new BsoInt(in.readInt());
+                        return BsoInt.of(in.readInt());
                 } else {
                     if ((ad & 0b0010) != 0)
-                        return new BsoUInt(in.readUnsignedByte());
+                        return BsoUInt.of(in.readUnsignedByte());
                     else if ((ad & 0b0100) != 0)
-                        return new BsoUInt(in.readUnsignedShort());
+                        return BsoUInt.of(in.readUnsignedShort());
                     else
-                        return new BsoUInt(in.readInt());
+                        return BsoUInt.of(in.readInt());
                 }
             }
             case 0b0100 -> {
                 if ((ad & 0b0001) == 0) {
                     if ((ad & 0b0110) == 0b0010)
-                        return new BsoLong(in.readByte());
+                        return BsoLong.of(in.readByte());
                     else if ((ad & 0b0110) == 0b0100)
-                        return new BsoLong(in.readShort());
+                        return BsoLong.of(in.readShort());
                     else if ((ad & 0b0110) == 0b0110)
-                        return new BsoLong(in.readInt());
+                        return BsoLong.of(in.readInt());
                     else
-                        return new BsoLong(in.readLong());
+                        return BsoLong.of(in.readLong());
                 } else {
                     if ((ad & 0b0110) == 0b0010)
-                        return new BsoULong(in.readUnsignedByte());
+                        return BsoULong.of(in.readUnsignedByte());
                     else if ((ad & 0b0110) == 0b0100)
-                        return new BsoULong(in.readUnsignedShort());
+                        return BsoULong.of(in.readUnsignedShort());
                     else if ((ad & 0b0110) == 0b0110)
-                        return new BsoULong(in.readInt());
+                        return BsoULong.of(in.readInt());
                     else
-                        return new BsoULong(in.readLong());
+                        return BsoULong.of(in.readLong());
                 }
             }
             case 0b0101 -> {
                 return ad == 0 ? new BsoFloat(in.readFloat()) : new BsoDouble(in.readDouble());
             }
             case 0b0110 -> {
+                if (in instanceof ByteBufferDataInput bin) {
+                    if (ad == 0b0001) return new BsoString(bin.readNulTerminatedUtf8());
+                    return new BsoString(bin.readUtf8(ad == 0b0100 ? in.readInt() : ad == 0b0010 ? in.readUnsignedShort() : in.readUnsignedByte()));
+                }
+
                 if (ad == 0b0001) {
                     byte[] buf = new byte[128];
                     int cur = 0;
@@ -276,13 +745,12 @@ public class BsoUtils {
                 }
             }
             case 0b0111 -> {
-                Map<String, BsoNode> map;
-
-                int length = ad == 0b0100 ? in.readInt() : ad == 0b0010 ? in.readUnsignedShort() : in.readUnsignedByte();
-                map = new HashMap<>(length);
+                int length = readLength(in, ad);
+                Map<String, BsoNode> map = new CompactMap(in instanceof ByteBufferDataInput input ? input.shapes() : null, Math.max(length, 0));
 
-                for (int i = 0; i < length; ++i) {
+                for (int i = 0; length < 0 || i < length; ++i) {
                     long adid = readADID(in);
+                    if (adid == 0 && length < 0) break;
                     int ead = (int) ((adid >> 32L) & 0xFFFFFFFFL);
                     int eid = (int) (adid & 0xFFFFFFFFL);
 
@@ -294,13 +762,12 @@ public class BsoUtils {
                 return new BsoMap(map);
             }
             case 0b1000 -> {
-                List<BsoNode> list;
+                int length = readLength(in, ad);
+                List<BsoNode> list = length < 0 ? new ArrayList<>() : new ArrayList<>(length);
 
-                int length = ad == 0b0100 ? in.readInt() : ad == 0b0010 ? in.readUnsignedShort() : in.readUnsignedByte();
-                list = new ArrayList<>(length);
-
-                for (int i = 0; i < length; ++i) {
+                for (int i = 0; length < 0 || i < length; ++i) {
                     long adid = readADID(in);
+                    if (adid == 0 && length < 0) break;
                     int ead = (int) ((adid >> 32L) & 0xFFFFFFFFL);
                     int eid = (int) (adid & 0xFFFFFFFFL);
 
@@ -311,21 +778,70 @@ public class BsoUtils {
                 return new BsoList(list);
             }
             case 0b1001 -> {
-                int length = ad == 0b0100 ? in.readInt() : ad == 0b0010 ? in.readUnsignedShort() : in.readUnsignedByte();
-                byte[] array = new byte[length];
+                byte[] array = new byte[readArrayLength(in, ad)];
                 in.readFully(array, 0, array.length);
 
                 return (ad & 0b0001) == 0 ? new BsoByteArray(array) : new BsoUByteArray(array);
             }
             case 0b1010 -> {
-                int length = ad == 0b0100 ? in.readInt() : ad == 0b0010 ? in.readUnsignedShort() : in.readUnsignedByte();
-                short[] array = new short[length];
-                for (int i = 0; i < length; ++i) {
-                    array[i] = in.readShort();
+                short[] array = new short[readArrayLength(in, ad)];
+                if (in instanceof ByteBufferDataInput bin) {
+                    bin.readShorts(array);
+                } else {
+                    for (int i = 0; i < array.length; ++i) {
+                        array[i] = in.readShort();
+                    }
                 }
 
                 return (ad & 0b0001) == 0 ? new BsoShortArray(array) : new BsoUShortArray(array);
             }
+            case 0b1011 -> {
+                int[] array = new int[readArrayLength(in, ad)];
+                if (in instanceof ByteBufferDataInput bin) {
+                    bin.readInts(array);
+                } else {
+                    for (int i = 0; i < array.length; ++i) {
+                        array[i] = in.readInt();
+                    }
+                }
+
+                return (ad & 0b0001) == 0 ? new BsoIntArray(array) : new BsoUIntArray(array);
+            }
+            case 0b1100 -> {
+                long[] array = new long[readArrayLength(in, ad)];
+                if (in instanceof ByteBufferDataInput bin) {
+                    bin.readLongs(array);
+                } else {
+                    for (int i = 0; i < array.length; ++i) {
+                        array[i] = in.readLong();
+                    }
+                }
+
+                return (ad & 0b0001) == 0 ? new BsoLongArray(array) : new BsoULongArray(array);
+            }
+            case 0b1101 -> {
+                if ((ad & 0b0001) == 0) {
+                    float[] array = new float[readArrayLength(in, ad)];
+                    if (in instanceof ByteBufferDataInput bin) {
+                        bin.readFloats(array);
+                    } else {
+                        for (int i = 0; i < array.length; ++i) {
+                            array[i] = in.readFloat();
+                        }
+                    }
+                    return new BsoFloatArray(array);
+                } else {
+                    double[] array = new double[readArrayLength(in, ad)];
+                    if (in instanceof ByteBufferDataInput bin) {
+                        bin.readDoubles(array);
+                    } else {
+                        for (int i = 0; i < array.length; ++i) {
+                            array[i] = in.readDouble();
+                        }
+                    }
+                    return new BsoDoubleArray(array);
+                }
+            }
             default -> {
                 BsoCustomType<?> customType = customTypes.get(id);
                 if (customType != null) {
@@ -337,7 +853,12 @@ public class BsoUtils {
         }
     }
 
-    private static String readBsoMapKey(DataInput in, int ad) throws IOException {
+    static String readBsoMapKey(DataInput in, int ad) throws IOException {
+        if (in instanceof ByteBufferDataInput bin) {
+            if (bin.hasKeyTable()) return bin.readKeyIndex();
+            return (ad & 0b1000) == 0b1000 ? bin.readKey(bin.readVarInt()) : bin.readNulTerminatedKey();
+        }
+
         if ((ad & 0b1000) == 0b1000) {
             // prefix
             int length = readVarInt(in);
@@ -358,25 +879,118 @@ public class BsoUtils {
         }
     }
 
-    @SuppressWarnings("unchecked")
+    static void skipBsoNode(DataInput in, int id, int ad) throws IOException {
+        switch (id) {
+            case 0b0001 -> skipFully(in, ad == 0b0000 || ad == 0b0001 ? 1 : 0);
+            case 0b0010 -> skipFully(in, (ad & 0b0010) != 0 ? 1 : 2);
+            case 0b0011 -> skipFully(in, (ad & 0b0010) != 0 ? 1 : (ad & 0b0100) != 0 ? 2 : 4);
+            case 0b0100 -> skipFully(in, switch (ad & 0b0110) {
+                case 0b0010 -> 1;
+                case 0b0100 -> 2;
+                case 0b0110 -> 4;
+                default -> 8;
+            });
+            case 0b0101 -> skipFully(in, ad == 0 ? 4 : 8);
+            case 0b0110 -> {
+                if (ad == 0b0001) {
+                    while (in.readByte() != 0);
+                } else {
+                    skipFully(in, ad == 0b0100 ? in.readInt() : ad == 0b0010 ? in.readUnsignedShort() : in.readUnsignedByte());
+                }
+            }
+            case 0b0111 -> {
+                int length = readLength(in, ad);
+                for (int i = 0; length < 0 || i < length; ++i) {
+                    long adid = readADID(in);
+                    if (adid == 0 && length < 0) break;
+                    int ead = (int) ((adid >> 32L) & 0xFFFFFFFFL);
+                    int eid = (int) (adid & 0xFFFFFFFFL);
+
+                    if (in instanceof ByteBufferDataInput bin && bin.hasKeyTable()) {
+                        bin.readVarInt();
+                    } else if ((ad & 0b1000) == 0b1000) {
+                        skipFully(in, readVarInt(in));
+                    } else {
+                        while (in.readByte() != 0);
+                    }
+                    skipBsoNode(in, eid, ead);
+                }
+            }
+            case 0b1000 -> {
+                int length = readLength(in, ad);
+                for (int i = 0; length < 0 || i < length; ++i) {
+                    long adid = readADID(in);
+                    if (adid == 0 && length < 0) break;
+                    int ead = (int) ((adid >> 32L) & 0xFFFFFFFFL);
+                    int eid = (int) (adid & 0xFFFFFFFFL);
+                    skipBsoNode(in, eid, ead);
+                }
+            }
+            case 0b1001 -> skipFully(in, readArrayLength(in, ad));
+            case 0b1010 -> skipFully(in, (long) readArrayLength(in, ad) * Short.BYTES);
+            case 0b1011 -> skipFully(in, (long) readArrayLength(in, ad) * Integer.BYTES);
+            case 0b1100 -> skipFully(in, (long) readArrayLength(in, ad) * Long.BYTES);
+            case 0b1101 -> skipFully(in, (long) readArrayLength(in, ad) * ((ad & 0b0001) == 0 ? Float.BYTES : Double.BYTES));
+            default -> readBsoNode(in, id, ad);
+        }
+    }
+
+    static int readLength(DataInput in, int ad) throws IOException {
+        return switch (ad & 0b0110) {
+            case 0b0110 -> -1;
+            case 0b0100 -> in.readInt();
+            case 0b0010 -> in.readUnsignedShort();
+            default -> in.readUnsignedByte();
+        };
+    }
+
+    // Arrays always carry their length, only maps and lists have the terminated form
+    static int readArrayLength(DataInput in, int ad) throws IOException {
+        int length = readLength(in, ad);
+        if (length < 0) {
+            throw new IOException("Invalid array length " + length);
+        }
+        return length;
+    }
+
+    private static void skipFully(DataInput in, long n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                in.readByte();
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
     public static void writeBsoNode(DataOutput out, BsoNode node, int ad) throws IOException {
-        switch (node) {
-            case BsoMissing _ -> throw new IllegalArgumentException("Missing is not allowed");
-            case BsoByte(byte value) -> out.write(value);
-            case BsoUByte(byte value) -> out.write(value & 0xFF);
-            case BsoShort(short value) -> {
+        writeBsoNode(out, node, typeOf(node), ad);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeBsoNode(DataOutput out, BsoNode node, BsoNodeType type, int ad) throws IOException {
+        switch (type) {
+            case MISSING -> throw new IllegalArgumentException("Missing is not allowed");
+            case BYTE -> out.write(((BsoByte) node).value());
+            case UBYTE -> out.write(((BsoUByte) node).value() & 0xFF);
+            case BOOL -> {}
+            case SHORT -> {
+                short value = ((BsoShort) node).value();
                 if ((ad & 0b0010) != 0)
                     out.writeByte(value);
                 else
                     out.writeShort(value);
             }
-            case BsoUShort(short value) -> {
+            case USHORT -> {
+                short value = ((BsoUShort) node).value();
                 if ((ad & 0b0010) != 0)
                     out.writeByte(value & 0xFF);
                 else
                     out.writeShort(value & 0xFFFF);
             }
-            case BsoInt(int value) -> {
+            case INT -> {
+                int value = ((BsoInt) node).value();
                 if ((ad & 0b0010) != 0)
                     out.writeByte(value);
                 else if ((ad & 0b0100) != 0)
@@ -384,8 +998,8 @@ public class BsoUtils {
                 else
                     out.writeInt(value);
             }
-            case BsoUInt(int value) -> {
-                long uvalue = (long)value & 0xFFFFFFFFL;
+            case UINT -> {
+                long uvalue = (long) ((BsoUInt) node).value() & 0xFFFFFFFFL;
                 if ((ad & 0b0010) != 0)
                     out.writeByte((int) (uvalue & 0xFF));
                 else if ((ad & 0b0110) != 0)
@@ -393,7 +1007,8 @@ public class BsoUtils {
                 else
                     out.writeInt((int) uvalue);
             }
-            case BsoLong(long value) -> {
+            case LONG -> {
+                long value = ((BsoLong) node).value();
                 if ((ad & 0b0110) == 0b0010)
                     out.writeByte((int) value);
                 else if ((ad & 0b0110) == 0b0100)
@@ -403,7 +1018,8 @@ public class BsoUtils {
                 else
                     out.writeLong(value);
             }
-            case BsoULong(long value) -> {
+            case ULONG -> {
+                long value = ((BsoULong) node).value();
                 if ((ad & 0b0110) == 0b0010)
                     out.write((int) (value & 0xFFL));
                 else if ((ad & 0b0110) == 0b0100)
@@ -413,200 +1029,284 @@ public class BsoUtils {
                 else
                     out.writeLong(value);
             }
-            case BsoFloat(float value) -> out.writeFloat(value);
-            case BsoDouble(double value) -> out.writeDouble(value);
-            case BsoBool _ -> {}
-            case BsoString(String value) -> {
-                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            case FLOAT -> out.writeFloat(((BsoFloat) node).value());
+            case DOUBLE -> out.writeDouble(((BsoDouble) node).value());
+            case STRING -> {
+                String value = ((BsoString) node).value();
 
-                if (ad == 0b0100) {
-                    out.writeInt(bytes.length);
-                } else if (ad == 0b0010) {
-                    out.writeShort(bytes.length & 0xFFFF);
-                } else if (ad == 0b0000) {
-                    out.writeByte(bytes.length & 0xFF);
+                if (ad != 0b0001) {
+                    writeLength(out, ad, getUtf8Length(value));
                 }
 
-                out.write(bytes);
+                writeUtf8(out, value);
 
                 if (ad == 0b0001) {
                     out.write(0);
                 }
             }
-            case BsoMap n -> {
-                if ((ad & 0b0110) == 0b0000) {
-                    out.writeByte(n.size() & 0xFF);
-                } else if ((ad & 0b0110) == 0b0010) {
-                    out.writeShort(n.size() & 0xFFFF);
-                } else if ((ad & 0b0110) == 0b0100) {
-                    out.writeInt(n.size());
-                }
+            case MAP -> {
+                writeLength(out, ad, node.size());
 
-                for (var entry : node.properties()) {
-                    int ead = getBsoNodeAd(entry.getValue());
-                    int eid = getBsoNodeId(entry.getValue());
-                    writeADID(out, ead, eid);
+                for (var entry : ((BsoMap) node).map().entrySet()) {
+                    BsoNode value = entry.getValue();
+                    BsoNodeType valueType = typeOf(value);
+                    String key = entry.getKey();
 
-                    byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
-                    if ((ad & 0b1000) != 0) {
-                        writeVarInt(out, bytes.length);
+                    if (isScalar(valueType)) {
+                        writeTaggedScalar(out, value, valueType, key, ad);
+                        continue;
                     }
 
-                    out.write(bytes);
-
-                    if ((ad & 0b1000) == 0) {
-                        out.writeByte(0);
-                    }
-
-                    writeBsoNode(out, entry.getValue(), ead);
+                    int ead = getBsoNodeAd(value, valueType);
+                    writeADID(out, ead, getBsoNodeId(value, valueType));
+                    writeBsoMapKey(out, key, ad);
+                    writeBsoNode(out, value, valueType, ead);
                 }
             }
-            case BsoList n -> {
-                if ((ad & 0b1110) == 0b0000) {
-                    out.writeByte(n.size() & 0xFF);
-                } else if ((ad & 0b1110) == 0b0010) {
-                    out.writeShort(n.size() & 0xFFFF);
-                } else if ((ad & 0b1110) == 0b0100) {
-                    out.writeInt(n.size());
-                }
+            case LIST -> {
+                writeLength(out, ad, node.size());
+
+                for (BsoNode entry : ((BsoList) node).list()) {
+                    BsoNodeType entryType = typeOf(entry);
+                    if (isScalar(entryType)) {
+                        writeTaggedScalar(out, entry, entryType, null, ad);
+                        continue;
+                    }
 
-                for (BsoNode entry : node) {
-                    int ead = getBsoNodeAd(entry);
-                    int eid = getBsoNodeId(entry);
-                    writeADID(out, ead, eid);
-                    writeBsoNode(out, entry, ead);
+                    int ead = getBsoNodeAd(entry, entryType);
+                    writeADID(out, ead, getBsoNodeId(entry, entryType));
+                    writeBsoNode(out, entry, entryType, ead);
                 }
             }
-            case BsoByteArray(byte[] values) -> {
-                if ((ad & 0b1110) == 0b0000) {
-                    out.writeByte(values.length & 0xFF);
-                } else if ((ad & 0b1110) == 0b0010) {
-                    out.writeShort(values.length & 0xFFFF);
-                } else if ((ad & 0b1110) == 0b0100) {
-                    out.writeInt(values.length);
-                }
-
+            case BYTE_ARRAY -> {
+                byte[] values = ((BsoByteArray) node).values();
+                writeLength(out, ad, values.length);
                 out.write(values);
             }
-            case BsoUByteArray(byte[] values) -> {
-                if ((ad & 0b1110) == 0b0000) {
-                    out.writeByte(values.length & 0xFF);
-                } else if ((ad & 0b1110) == 0b0010) {
-                    out.writeShort(values.length & 0xFFFF);
-                } else if ((ad & 0b1110) == 0b0100) {
-                    out.writeInt(values.length);
-                }
-
+            case UBYTE_ARRAY -> {
+                byte[] values = ((BsoUByteArray) node).values();
+                writeLength(out, ad, values.length);
                 out.write(values);
             }
-            case BsoShortArray(short[] values) -> {
-                if ((ad & 0b1110) == 0b0000) {
-                    out.writeByte(values.length & 0xFF);
-                } else if ((ad & 0b1110) == 0b0010) {
-                    out.writeShort(values.length & 0xFFFF);
-                } else if ((ad & 0b1110) == 0b0100) {
-                    out.writeInt(values.length);
-                }
-
-                for (short value : values) {
-                    out.writeShort(value);
+            case SHORT_ARRAY -> writeShortArray(out, ad, ((BsoShortArray) node).values());
+            case USHORT_ARRAY -> writeShortArray(out, ad, ((BsoUShortArray) node).values());
+            case INT_ARRAY -> writeIntArray(out, ad, ((BsoIntArray) node).values());
+            case UINT_ARRAY -> writeIntArray(out, ad, ((BsoUIntArray) node).values());
+            case LONG_ARRAY -> writeLongArray(out, ad, ((BsoLongArray) node).values());
+            case ULONG_ARRAY -> writeLongArray(out, ad, ((BsoULongArray) node).values());
+            case FLOAT_ARRAY -> {
+                float[] values = ((BsoFloatArray) node).values();
+                writeLength(out, ad, values.length);
+                if (out instanceof ByteBufferDataOutput bout) {
+                    bout.writeFloats(values);
+                } else {
+                    for (float value : values) {
+                        out.writeFloat(value);
+                    }
                 }
             }
-            case BsoUShortArray(short[] values) -> {
-                if ((ad & 0b1110) == 0b0000) {
-                    out.writeByte(values.length & 0xFF);
-                } else if ((ad & 0b1110) == 0b0010) {
-                    out.writeShort(values.length & 0xFFFF);
-                } else if ((ad & 0b1110) == 0b0100) {
-                    out.writeInt(values.length);
-                }
-
-                for (short value : values) {
-                    out.writeShort(value);
+            case DOUBLE_ARRAY -> {
+                double[] values = ((BsoDoubleArray) node).values();
+                writeLength(out, ad, values.length);
+                if (out instanceof ByteBufferDataOutput bout) {
+                    bout.writeDoubles(values);
+                } else {
+                    for (double value : values) {
+                        out.writeDouble(value);
+                    }
                 }
             }
-            case BsoIntArray(int[] values) -> {
-                if ((ad & 0b1110) == 0b0000) {
-                    out.writeByte(values.length & 0xFF);
-                } else if ((ad & 0b1110) == 0b0010) {
-                    out.writeShort(values.length & 0xFFFF);
-                } else if ((ad & 0b1110) == 0b0100) {
-                    out.writeInt(values.length);
-                }
-
-                for (int value : values) {
-                    out.writeInt(value);
-                }
+            case CUSTOM -> {
+                BsoCustom<Object> n = (BsoCustom<Object>) node;
+                n.type().write(out, n);
             }
-            case BsoUIntArray(int[] values) -> {
-                if ((ad & 0b1110) == 0b0000) {
-                    out.writeByte(values.length & 0xFF);
-                } else if ((ad & 0b1110) == 0b0010) {
-                    out.writeShort(values.length & 0xFFFF);
-                } else if ((ad & 0b1110) == 0b0100) {
-                    out.writeInt(values.length);
-                }
+        }
+    }
 
-                for (int value : values) {
-                    out.writeInt(value);
+    // Exact checks against the final node classes are cheaper than the megamorphic nodeType() call, so the common types are resolved first
+    private static BsoNodeType typeOf(BsoNode node) {
+        if (node instanceof BsoInt) return BsoNodeType.INT;
+        if (node instanceof BsoString) return BsoNodeType.STRING;
+        if (node instanceof BsoByte) return BsoNodeType.BYTE;
+        if (node instanceof BsoShort) return BsoNodeType.SHORT;
+        if (node instanceof BsoLong) return BsoNodeType.LONG;
+        if (node instanceof BsoFloat) return BsoNodeType.FLOAT;
+        if (node instanceof BsoDouble) return BsoNodeType.DOUBLE;
+        if (node instanceof BsoBool) return BsoNodeType.BOOL;
+        if (node instanceof BsoMap) return BsoNodeType.MAP;
+        if (node instanceof BsoList) return BsoNodeType.LIST;
+        return node.nodeType();
+    }
+
+    private static boolean isScalar(BsoNodeType type) {
+        return type.ordinal() <= BsoNodeType.DOUBLE.ordinal();
+    }
+
+    private static void writeBsoMapKey(DataOutput out, String key, int mapAd) throws IOException {
+        if (out instanceof ByteBufferDataOutput bout && bout.keyTable() != null) {
+            bout.writeVarInt(bout.keyTable().indexOf(key));
+            return;
+        }
+
+        if ((mapAd & 0b1000) != 0) {
+            writeVarInt(out, getUtf8Length(key));
+        }
+
+        writeUtf8(out, key);
+
+        if ((mapAd & 0b1000) == 0) {
+            out.writeByte(0);
+        }
+    }
+
+    // Writes the adid, the map key (when key is not null) and the payload of a numeric or boolean node. The ad comes from
+    // getBsoNodeAd and the payload from writeBsoNode, so the width always matches the one getBsoNodeSize counts.
+    private static void writeTaggedScalar(DataOutput out, BsoNode node, BsoNodeType type, String key, int mapAd) throws IOException {
+        int ad = getBsoNodeAd(node, type);
+        writeADID(out, ad, type.getId());
+        if (key != null) writeBsoMapKey(out, key, mapAd);
+        writeBsoNode(out, node, type, ad);
+    }
+
+    @SuppressWarnings("unchecked")
+    static long getBsoNodeSize(BsoNode node, int ad) {
+        return getBsoNodeSize(node, typeOf(node), ad, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long getBsoNodeSize(BsoNode node, BsoNodeType type, int ad, KeyTable keys) {
+        return switch (type) {
+            case MISSING -> throw new IllegalArgumentException("Missing is not allowed");
+            case BYTE, UBYTE -> 1;
+            case BOOL -> 0;
+            case SHORT, USHORT -> (ad & 0b0010) != 0 ? 1 : 2;
+            case INT -> (ad & 0b0010) != 0 ? 1 : (ad & 0b0100) != 0 ? 2 : 4;
+            case UINT -> (ad & 0b0010) != 0 ? 1 : (ad & 0b0110) != 0 ? 2 : 4;
+            case LONG, ULONG -> switch (ad & 0b0110) {
+                case 0b0010 -> 1;
+                case 0b0100 -> 2;
+                case 0b0110 -> 4;
+                default -> 8;
+            };
+            case FLOAT -> 4;
+            case DOUBLE -> 8;
+            case STRING -> (ad == 0b0100 ? 4 : ad == 0b0010 ? 2 : 1) + getUtf8Length(((BsoString) node).value());
+            case MAP -> {
+                long size = getLengthSize(ad);
+                for (var entry : ((BsoMap) node).map().entrySet()) {
+                    BsoNode value = entry.getValue();
+                    BsoNodeType valueType = typeOf(value);
+                    int ead = getBsoNodeAd(value, valueType);
+                    size += getADIDSize(ead, getBsoNodeId(value, valueType)) + getBsoMapKeySize(entry.getKey(), ad, keys);
+                    size += getBsoNodeSize(value, valueType, ead, keys);
                 }
+                yield size;
             }
-            case BsoLongArray(long[] values) -> {
-                if ((ad & 0b1110) == 0b0000) {
-                    out.writeByte(values.length & 0xFF);
-                } else if ((ad & 0b1110) == 0b0010) {
-                    out.writeShort(values.length & 0xFFFF);
-                } else if ((ad & 0b1110) == 0b0100) {
-                    out.writeInt(values.length);
+            case LIST -> {
+                long size = getLengthSize(ad);
+                for (BsoNode entry : ((BsoList) node).list()) {
+                    BsoNodeType entryType = typeOf(entry);
+                    int ead = getBsoNodeAd(entry, entryType);
+                    size += getADIDSize(ead, getBsoNodeId(entry, entryType)) + getBsoNodeSize(entry, entryType, ead, keys);
                 }
+                yield size;
+            }
+            case BYTE_ARRAY, UBYTE_ARRAY -> getLengthSize(ad) + (long) node.size();
+            case SHORT_ARRAY, USHORT_ARRAY -> getLengthSize(ad) + (long) node.size() * Short.BYTES;
+            case INT_ARRAY, UINT_ARRAY, FLOAT_ARRAY -> getLengthSize(ad) + (long) node.size() * Integer.BYTES;
+            case LONG_ARRAY, ULONG_ARRAY, DOUBLE_ARRAY -> getLengthSize(ad) + (long) node.size() * Long.BYTES;
+            case CUSTOM -> ((BsoCustom<Object>) node).type().getSize((BsoCustom<Object>) node);
+        };
+    }
 
-                for (long value : values) {
-                    out.writeLong(value);
+    private static int getLengthSize(int ad) {
+        return (ad & 0b0110) == 0b0100 ? 4 : (ad & 0b0110) == 0b0010 ? 2 : 1;
+    }
+
+    private static int getBsoMapKeySize(String key, int mapAd, KeyTable keys) {
+        if (keys != null) {
+            return getVarIntSize(keys.indexOf(key));
+        }
+
+        int length = getUtf8Length(key);
+        return length + ((mapAd & 0b1000) != 0 ? getVarIntSize(length) : 1);
+    }
+
+    static int getVarIntSize(int value) {
+        return value == 0 ? 1 : (38 - Integer.numberOfLeadingZeros(value)) / 7;
+    }
+
+    static int getUtf8Length(String value) {
+        int length = value.length();
+        int size = length;
+        for (int i = 0; i < length; ++i) {
+            char chr = value.charAt(i);
+            if (chr >= 0x80) {
+                if (chr < 0x800) {
+                    size += 1;
+                } else if (Character.isHighSurrogate(chr) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    size += 2;
+                    ++i;
+                } else if (!Character.isSurrogate(chr)) {
+                    size += 2;
                 }
             }
-            case BsoULongArray(long[] values) -> {
-                if ((ad & 0b1110) == 0b0000) {
-                    out.writeByte(values.length & 0xFF);
-                } else if ((ad & 0b1110) == 0b0010) {
-                    out.writeShort(values.length & 0xFFFF);
-                } else if ((ad & 0b1110) == 0b0100) {
-                    out.writeInt(values.length);
-                }
+        }
+        return size;
+    }
 
-                for (long value : values) {
-                    out.writeLong(value);
-                }
+    static void writeUtf8(DataOutput out, String value) throws IOException {
+        if (out instanceof ByteBufferDataOutput bout) {
+            bout.writeUtf8(value);
+        } else {
+            out.write(value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void writeLength(DataOutput out, int ad, int length) throws IOException {
+        if ((ad & 0b0110) == 0b0000) {
+            out.writeByte(length & 0xFF);
+        } else if ((ad & 0b0110) == 0b0010) {
+            out.writeShort(length & 0xFFFF);
+        } else if ((ad & 0b0110) == 0b0100) {
+            out.writeInt(length);
+        }
+    }
+
+    private static void writeShortArray(DataOutput out, int ad, short[] values) throws IOException {
+        writeLength(out, ad, values.length);
+        if (out instanceof ByteBufferDataOutput bout) {
+            bout.writeShorts(values);
+        } else {
+            for (short value : values) {
+                out.writeShort(value);
             }
-            case BsoFloatArray(float[] values) -> {
-                if ((ad & 0b1110) == 0b0000) {
-                    out.writeByte(values.length & 0xFF);
-                } else if ((ad & 0b1110) == 0b0010) {
-                    out.writeShort(values.length & 0xFFFF);
-                } else if ((ad & 0b1110) == 0b0100) {
-                    out.writeInt(values.length);
-                }
+        }
+    }
 
-                for (float value : values) {
-                    out.writeFloat(value);
-                }
+    private static void writeIntArray(DataOutput out, int ad, int[] values) throws IOException {
+        writeLength(out, ad, values.length);
+        if (out instanceof ByteBufferDataOutput bout) {
+            bout.writeInts(values);
+        } else {
+            for (int value : values) {
+                out.writeInt(value);
             }
-            case BsoDoubleArray(double[] values) -> {
-                if ((ad & 0b1110) == 0b0000) {
-                    out.writeByte(values.length & 0xFF);
-                } else if ((ad & 0b1110) == 0b0010) {
-                    out.writeShort(values.length & 0xFFFF);
-                } else if ((ad & 0b1110) == 0b0100) {
-                    out.writeInt(values.length);
-                }
+        }
+    }
 
-                for (double value : values) {
-                    out.writeDouble(value);
-                }
+    private static void writeLongArray(DataOutput out, int ad, long[] values) throws IOException {
+        writeLength(out, ad, values.length);
+        if (out instanceof ByteBufferDataOutput bout) {
+            bout.writeLongs(values);
+        } else {
+            for (long value : values) {
+                out.writeLong(value);
             }
-            case BsoCustom<?> n -> ((BsoCustom<Object>) n).type().write(out, (BsoCustom<Object>) n);
         }
     }
 
+
     private static int readVarInt(DataInput in) throws IOException {
         int shift = 0;
         int result = 0;
@@ -633,133 +1333,84 @@ public class BsoUtils {
         }
     }
 
-    private static int getBsoNodeId(BsoNode node) {
-        if (node instanceof BsoBool || node instanceof BsoByte || node instanceof BsoUByte) {
-            return 0b0001;
-        } else if (node instanceof BsoShort || node instanceof BsoUShort) {
-            return 0b0010;
-        } else if (node instanceof BsoInt || node instanceof BsoUInt) {
-            return 0b0011;
-        } else if (node instanceof BsoLong || node instanceof BsoULong) {
-            return 0b0100;
-        } else if (node instanceof BsoFloat || node instanceof BsoDouble) {
-            return 0b0101;
-        } else if (node instanceof BsoString) {
-            return 0b0110;
-        } else if (node instanceof BsoMap) {
-            return 0b0111;
-        } else if (node instanceof BsoList) {
-            return 0b1000;
-        } else if (node instanceof BsoByteArray || node instanceof BsoUByteArray) {
-            return 0b1001;
-        } else if (node instanceof BsoShortArray || node instanceof BsoUShortArray) {
-            return 0b1010;
-        } else if (node instanceof BsoIntArray || node instanceof BsoUIntArray) {
-            return 0b1011;
-        } else if (node instanceof BsoLongArray || node instanceof BsoULongArray) {
-            return 0b1100;
-        } else if (node instanceof BsoFloatArray || node instanceof BsoDoubleArray) {
-            return 0b1101;
-        } else if (node instanceof BsoCustom<?> n) {
-            return n.type().getId();
-        } else {
-            throw new IllegalArgumentException("Unknown type");
-        }
+    static int getBsoNodeId(BsoNode node) {
+        return getBsoNodeId(node, typeOf(node));
+    }
+
+    private static int getBsoNodeId(BsoNode node, BsoNodeType type) {
+        return switch (type) {
+            case CUSTOM -> ((BsoCustom<?>) node).type().getId();
+            case MISSING -> throw new IllegalArgumentException("Missing is not allowed");
+            default -> type.getId();
+        };
+    }
+
+    static int getBsoNodeAd(BsoNode node) {
+        return getBsoNodeAd(node, typeOf(node));
     }
 
     @SuppressWarnings("unchecked")
-    private static int getBsoNodeAd(BsoNode node) {
-        if (node instanceof BsoByte) {
-            return 0b0000;
-        } else if (node instanceof BsoUByte) {
-            return 0b0001;
-        } else if (node instanceof BsoBool(boolean value)) {
-            return value ? 0b0110 : 0b0010;
-        } else if (node instanceof BsoShort(short value)) {
-            return value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE ? 0b0010 : 0b0000;
-        } else if (node instanceof BsoUShort(short value)) {
-            return (value & 0xFFFF) <= UBYTE_MAX ? 0b0011 : 0b0001;
-        } else if (node instanceof BsoInt(int value)) {
-            if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
-                return 0b0010;
-            else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
-                return 0b0100;
-            else
-                return 0b0000;
-        } else if (node instanceof BsoUInt(int value)) {
-            long uvalue = (long)value & 0xFFFFFFFFL;
-            if (uvalue <= UBYTE_MAX)
-                return 0b0011;
-            else if (uvalue <= USHORT_MAX)
-                return 0b0101;
-            else
-                return 0b0001;
-        } else if (node instanceof BsoLong(long value)) {
-            if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
-                return 0b0010;
-            else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
-                return 0b0100;
-            else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
-                return 0b0110;
-            else
-                return 0b0000;
-        } else if (node instanceof BsoULong(long value)) {
-            if (Long.compareUnsigned(value, UBYTE_MAX) <= 0)
-                return 0b0011;
-            else if (Long.compareUnsigned(value, USHORT_MAX) <= 0)
-                return 0b0101;
-            else if (Long.compareUnsigned(value, UINT_MAX) <= 0)
-                return 0b0111;
-            else
-                return 0b0001;
-        } else if (node instanceof BsoFloat) {
-            return 0b0000;
-        } else if (node instanceof BsoDouble) {
-            return 0b0001;
-        } else if (node instanceof BsoString(String value)) {
-            int len = value.length();
-            return (len & 0xFFFFFF00) == 0 ? 0b0000 : (len & 0xFFFF0000) == 0 ? 0b0010 : 0b0100;
-        } else if (node instanceof BsoMap n) {
-            int len = n.size();
-            return (len & 0xFFFFFF00) == 0 ? 0b0000 : (len & 0xFFFF0000) == 0 ? 0b0010 : 0b0100;
-        } else if (node instanceof BsoList n) {
-            int len = n.size();
-            return (len & 0xFFFFFF00) == 0 ? 0b0000 : (len & 0xFFFF0000) == 0 ? 0b0010 : 0b0100;
-        } else if (node instanceof BsoByteArray n) {
-            int len = n.size();
-            return (len & 0xFFFFFF00) == 0 ? 0b0000 : (len & 0xFFFF0000) == 0 ? 0b0010 : 0b0100;
-        } else if (node instanceof BsoUByteArray n) {
-            int len = n.size();
-            return 0b0001 | ((len & 0xFFFFFF00) == 0 ? 0b0000 : (len & 0xFFFF0000) == 0 ? 0b0010 : 0b0100);
-        } else if (node instanceof BsoShortArray n) {
-            int len = n.size();
-            return (len & 0xFFFFFF00) == 0 ? 0b0000 : (len & 0xFFFF0000) == 0 ? 0b0010 : 0b0100;
-        } else if (node instanceof BsoUShortArray n) {
-            int len = n.size();
-            return 0b0001 | ((len & 0xFFFFFF00) == 0 ? 0b0000 : (len & 0xFFFF0000) == 0 ? 0b0010 : 0b0100);
-        } else if (node instanceof BsoIntArray n) {
-            int len = n.size();
-            return (len & 0xFFFFFF00) == 0 ? 0b0000 : (len & 0xFFFF0000) == 0 ? 0b0010 : 0b0100;
-        } else if (node instanceof BsoUIntArray n) {
-            int len = n.size();
-            return 0b0001 | ((len & 0xFFFFFF00) == 0 ? 0b0000 : (len & 0xFFFF0000) == 0 ? 0b0010 : 0b0100);
-        } else if (node instanceof BsoLongArray n) {
-            int len = n.size();
-            return (len & 0xFFFFFF00) == 0 ? 0b0000 : (len & 0xFFFF0000) == 0 ? 0b0010 : 0b0100;
-        } else if (node instanceof BsoULongArray n) {
-            int len = n.size();
-            return 0b0001 | ((len & 0xFFFFFF00) == 0 ? 0b0000 : (len & 0xFFFF0000) == 0 ? 0b0010 : 0b0100);
-        } else if (node instanceof BsoFloatArray n) {
-            int len = n.size();
-            return (len & 0xFFFFFF00) == 0 ? 0b0000 : (len & 0xFFFF0000) == 0 ? 0b0010 : 0b0100;
-        } else if (node instanceof BsoDoubleArray n) {
-            int len = n.size();
-            return 0b0001 | ((len & 0xFFFFFF00) == 0 ? 0b0000 : (len & 0xFFFF0000) == 0 ? 0b0010 : 0b0100);
-        } else if (node instanceof BsoCustom<?> n) {
-            return ((BsoCustomType<Object>) n.type()).getAd((BsoCustom<Object>) n);
-        } else {
-            throw new IllegalArgumentException("Unknown type");
-        }
+    private static int getBsoNodeAd(BsoNode node, BsoNodeType type) {
+        return switch (type) {
+            case BYTE, FLOAT -> 0b0000;
+            case UBYTE, DOUBLE -> 0b0001;
+            case BOOL -> ((BsoBool) node).value() ? 0b0110 : 0b0010;
+            case SHORT -> {
+                short value = ((BsoShort) node).value();
+                yield value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE ? 0b0010 : 0b0000;
+            }
+            case USHORT -> (((BsoUShort) node).value() & 0xFFFF) <= UBYTE_MAX ? 0b0011 : 0b0001;
+            case INT -> {
+                int value = ((BsoInt) node).value();
+                if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+                    yield 0b0010;
+                else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+                    yield 0b0100;
+                else
+                    yield 0b0000;
+            }
+            case UINT -> {
+                long uvalue = (long) ((BsoUInt) node).value() & 0xFFFFFFFFL;
+                if (uvalue <= UBYTE_MAX)
+                    yield 0b0011;
+                else if (uvalue <= USHORT_MAX)
+                    yield 0b0101;
+                else
+                    yield 0b0001;
+            }
+            case LONG -> {
+                long value = ((BsoLong) node).value();
+                if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+                    yield 0b0010;
+                else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+                    yield 0b0100;
+                else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+                    yield 0b0110;
+                else
+                    yield 0b0000;
+            }
+            case ULONG -> {
+                long value = ((BsoULong) node).value();
+                if (Long.compareUnsigned(value, UBYTE_MAX) <= 0)
+                    yield 0b0011;
+                else if (Long.compareUnsigned(value, USHORT_MAX) <= 0)
+                    yield 0b0101;
+                else if (Long.compareUnsigned(value, UINT_MAX) <= 0)
+                    yield 0b0111;
+                else
+                    yield 0b0001;
+            }
+            case STRING -> getLengthAd(getUtf8Length(((BsoString) node).value()));
+            case MAP -> 0b1000 | getLengthAd(node.size());
+            case LIST, BYTE_ARRAY, SHORT_ARRAY, INT_ARRAY, LONG_ARRAY, FLOAT_ARRAY -> getLengthAd(node.size());
+            case UBYTE_ARRAY, USHORT_ARRAY, UINT_ARRAY, ULONG_ARRAY, DOUBLE_ARRAY -> 0b0001 | getLengthAd(node.size());
+            case CUSTOM -> ((BsoCustom<Object>) node).type().getAd((BsoCustom<Object>) node);
+            case MISSING -> throw new IllegalArgumentException("Missing is not allowed");
+        };
+    }
+
+    private static int getLengthAd(int length) {
+        return (length & 0xFFFFFF00) == 0 ? 0b0000 : (length & 0xFFFF0000) == 0 ? 0b0010 : 0b0100;
     }
 
     public enum Endianess {
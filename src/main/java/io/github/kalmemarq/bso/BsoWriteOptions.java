@@ -0,0 +1,52 @@
+package io.github.kalmemarq.bso;
+
+import java.util.concurrent.Executor;
+
+public record BsoWriteOptions(BsoUtils.Endianess endianess, boolean keyTable, BsoCodec codec, int level, Executor executor, int blockSize, int fieldIndex) {
+    public static final BsoWriteOptions DEFAULT = new BsoWriteOptions();
+    public static final BsoWriteOptions KEY_TABLE = new BsoWriteOptions(BsoUtils.Endianess.BIG, true);
+
+    public BsoWriteOptions {
+        if (blockSize < 0 || blockSize > BlockCompression.MAX_BLOCK_SIZE || (executor != null && blockSize == 0)) {
+            throw new IllegalArgumentException("Block size " + blockSize + " must be between 1 and " + BlockCompression.MAX_BLOCK_SIZE);
+        }
+        if (fieldIndex < 0 || fieldIndex > FieldIndex.MAX_DEPTH) {
+            throw new IllegalArgumentException("Field index depth " + fieldIndex + " must be between 0 and " + FieldIndex.MAX_DEPTH);
+        }
+    }
+
+    public BsoWriteOptions() {
+        this(BsoUtils.Endianess.BIG, false);
+    }
+
+    public BsoWriteOptions(BsoUtils.Endianess endianess, boolean keyTable) {
+        this(endianess, keyTable, null, -1, null, 0, 0);
+    }
+
+    public BsoWriteOptions withCodec(BsoCodec codec) {
+        return this.withCodec(codec, codec != null ? codec.getDefaultLevel() : -1);
+    }
+
+    public BsoWriteOptions withCodec(BsoCodec codec, int level) {
+        return new BsoWriteOptions(this.endianess, this.keyTable, codec, level, this.executor, this.blockSize, this.fieldIndex);
+    }
+
+    // Compressed output is cut into independently compressed blocks with a trailing index, so it can be read from any offset
+    public BsoWriteOptions withBlockSize(int blockSize) {
+        return new BsoWriteOptions(this.endianess, this.keyTable, this.codec, this.level, this.executor, blockSize, this.fieldIndex);
+    }
+
+    // Blocks are compressed concurrently on the executor
+    public BsoWriteOptions withExecutor(Executor executor) {
+        return this.withExecutor(executor, this.blockSize > 0 ? this.blockSize : BlockCompression.DEFAULT_BLOCK_SIZE);
+    }
+
+    public BsoWriteOptions withExecutor(Executor executor, int blockSize) {
+        return new BsoWriteOptions(this.endianess, this.keyTable, this.codec, this.level, executor, blockSize, this.fieldIndex);
+    }
+
+    // Appends an index of the root map's keys (depth 1) or of those and the keys of maps directly under it (depth 2) for BsoUtils.readField
+    public BsoWriteOptions withFieldIndex(int depth) {
+        return new BsoWriteOptions(this.endianess, this.keyTable, this.codec, this.level, this.executor, this.blockSize, depth);
+    }
+}
@@ -0,0 +1,468 @@
+package io.github.kalmemarq.bso;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+public class ByteBufferDataInput implements DataInput, AutoCloseable {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    private ByteBuffer buffer;
+    private KeyCache keyCache;
+    private Shape shapes;
+    private String[] keyTable;
+
+    public ByteBufferDataInput(InputStream input, ByteOrder order) {
+        this(Channels.newChannel(input), order, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ByteBufferDataInput(ReadableByteChannel channel, ByteOrder order) {
+        this(channel, order, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ByteBufferDataInput(ReadableByteChannel channel, ByteOrder order, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize).order(order);
+        this.buffer.flip();
+    }
+
+    public ByteBufferDataInput(ByteBuffer buffer) {
+        this.channel = null;
+        this.buffer = buffer;
+    }
+
+    public ByteOrder order() {
+        return this.buffer.order();
+    }
+
+    int position() {
+        return this.buffer.position();
+    }
+
+    int remaining() {
+        return this.buffer.remaining();
+    }
+
+    ByteBufferDataInput duplicate(int position) {
+        ByteBufferDataInput input = new ByteBufferDataInput(this.buffer.duplicate().order(this.buffer.order()).position(position));
+        input.keyCache = this.keyCache;
+        input.shapes = this.shapes();
+        input.keyTable = this.keyTable;
+        return input;
+    }
+
+    // Root of the key layouts shared by the maps decoded from this input and its duplicates
+    Shape shapes() {
+        if (this.shapes == null) this.shapes = Shape.root();
+        return this.shapes;
+    }
+
+    void setKeyCache(KeyCache keyCache) {
+        this.keyCache = keyCache;
+    }
+
+    void setKeyTable(String[] keyTable) {
+        this.keyTable = keyTable;
+    }
+
+    boolean hasKeyTable() {
+        return this.keyTable != null;
+    }
+
+    String readKeyIndex() throws IOException {
+        int index = this.readVarInt();
+        if (index < 0 || index >= this.keyTable.length) {
+            throw new IOException("Key index " + index + " is outside the key table");
+        }
+        return this.keyTable[index];
+    }
+
+    String readKey(int length) throws IOException {
+        if (this.keyCache == null || length > this.buffer.capacity()) {
+            return this.readUtf8(length);
+        }
+
+        this.require(length);
+        String value = this.keyCache.get(this.buffer, this.buffer.position(), length);
+        this.buffer.position(this.buffer.position() + length);
+        return value;
+    }
+
+    // Consumes the next map key and returns which of the keys it is, or -1, without decoding it
+    int matchKey(int mapAd, String[] keys, byte[][] utf8Keys) throws IOException {
+        if (this.keyTable != null) {
+            String key = this.readKeyIndex();
+            for (int i = 0; i < keys.length; ++i) {
+                if (keys[i].equals(key)) return i;
+            }
+            return -1;
+        }
+
+        int length;
+        int terminator = 0;
+        if ((mapAd & 0b1000) == 0b1000) {
+            length = this.readVarInt();
+            boolean candidate = false;
+            for (byte[] key : utf8Keys) {
+                candidate |= key.length == length;
+            }
+            if (!candidate) {
+                if (this.skipBytes(length) != length) throw new EOFException();
+                return -1;
+            }
+            this.require(length);
+        } else {
+            length = this.scanNul();
+            terminator = 1;
+        }
+
+        int start = this.buffer.position();
+        this.buffer.position(start + length + terminator);
+        for (int i = 0; i < utf8Keys.length; ++i) {
+            byte[] key = utf8Keys[i];
+            if (key.length != length) continue;
+
+            int j = 0;
+            while (j < length && this.buffer.get(start + j) == key[j]) ++j;
+            if (j == length) return i;
+        }
+        return -1;
+    }
+
+    String readNulTerminatedKey() throws IOException {
+        if (this.keyCache == null) {
+            return this.readNulTerminatedUtf8();
+        }
+
+        int length = this.scanNul();
+        String value = this.keyCache.get(this.buffer, this.buffer.position(), length);
+        this.buffer.position(this.buffer.position() + length + 1);
+        return value;
+    }
+
+    private void require(int n) throws IOException {
+        if (this.buffer.remaining() >= n) return;
+        if (this.channel == null) throw new EOFException();
+
+        if (n > this.buffer.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(n, this.buffer.capacity() * 2)).order(this.buffer.order());
+            grown.put(this.buffer);
+            this.buffer = grown;
+        } else {
+            this.buffer.compact();
+        }
+
+        while (this.buffer.position() < n) {
+            if (this.channel.read(this.buffer) < 0) {
+                this.buffer.flip();
+                throw new EOFException();
+            }
+        }
+        this.buffer.flip();
+    }
+
+    private boolean fill() throws IOException {
+        if (this.channel == null) return false;
+        this.buffer.compact();
+        int read;
+        do {
+            read = this.channel.read(this.buffer);
+        } while (read == 0 && this.buffer.hasRemaining());
+        this.buffer.flip();
+        return read > 0;
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        this.readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        int available = Math.min(len, this.buffer.remaining());
+        this.buffer.get(b, off, available);
+        off += available;
+        len -= available;
+
+        if (len == 0) return;
+        if (this.channel == null) throw new EOFException();
+
+        if (len >= this.buffer.capacity()) {
+            ByteBuffer target = ByteBuffer.wrap(b, off, len);
+            while (target.hasRemaining()) {
+                if (this.channel.read(target) < 0) throw new EOFException();
+            }
+        } else {
+            this.require(len);
+            this.buffer.get(b, off, len);
+        }
+    }
+
+    @Override
+    public int skipBytes(int n) throws IOException {
+        if (n > this.buffer.remaining() && this.channel instanceof SeekableByteChannel seekable) {
+            long position = seekable.position();
+            int skip = (int) Math.max(0, Math.min(n - this.buffer.remaining(), seekable.size() - position));
+            seekable.position(position + skip);
+            int skipped = this.buffer.remaining() + skip;
+            this.buffer.position(this.buffer.limit());
+            return skipped;
+        }
+
+        int skipped = 0;
+        while (skipped < n) {
+            if (!this.buffer.hasRemaining() && !this.fill()) break;
+            int step = Math.min(n - skipped, this.buffer.remaining());
+            this.buffer.position(this.buffer.position() + step);
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return this.readByte() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        if (!this.buffer.hasRemaining()) this.require(1);
+        return this.buffer.get();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return this.readByte() & 0xFF;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        this.require(2);
+        return this.buffer.getShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return this.readShort() & 0xFFFF;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        this.require(2);
+        return this.buffer.getChar();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        this.require(4);
+        return this.buffer.getInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        this.require(8);
+        return this.buffer.getLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        this.require(4);
+        return this.buffer.getFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        this.require(8);
+        return this.buffer.getDouble();
+    }
+
+    public void readShorts(short[] values) throws IOException {
+        int offset = 0;
+        while (offset < values.length) {
+            if (this.buffer.remaining() < Short.BYTES) this.require(Short.BYTES);
+            int count = Math.min(values.length - offset, this.buffer.remaining() / Short.BYTES);
+            this.buffer.asShortBuffer().get(values, offset, count);
+            this.buffer.position(this.buffer.position() + count * Short.BYTES);
+            offset += count;
+        }
+    }
+
+    public void readInts(int[] values) throws IOException {
+        int offset = 0;
+        while (offset < values.length) {
+            if (this.buffer.remaining() < Integer.BYTES) this.require(Integer.BYTES);
+            int count = Math.min(values.length - offset, this.buffer.remaining() / Integer.BYTES);
+            this.buffer.asIntBuffer().get(values, offset, count);
+            this.buffer.position(this.buffer.position() + count * Integer.BYTES);
+            offset += count;
+        }
+    }
+
+    public void readLongs(long[] values) throws IOException {
+        int offset = 0;
+        while (offset < values.length) {
+            if (this.buffer.remaining() < Long.BYTES) this.require(Long.BYTES);
+            int count = Math.min(values.length - offset, this.buffer.remaining() / Long.BYTES);
+            this.buffer.asLongBuffer().get(values, offset, count);
+            this.buffer.position(this.buffer.position() + count * Long.BYTES);
+            offset += count;
+        }
+    }
+
+    public void readFloats(float[] values) throws IOException {
+        int offset = 0;
+        while (offset < values.length) {
+            if (this.buffer.remaining() < Float.BYTES) this.require(Float.BYTES);
+            int count = Math.min(values.length - offset, this.buffer.remaining() / Float.BYTES);
+            this.buffer.asFloatBuffer().get(values, offset, count);
+            this.buffer.position(this.buffer.position() + count * Float.BYTES);
+            offset += count;
+        }
+    }
+
+    public void readDoubles(double[] values) throws IOException {
+        int offset = 0;
+        while (offset < values.length) {
+            if (this.buffer.remaining() < Double.BYTES) this.require(Double.BYTES);
+            int count = Math.min(values.length - offset, this.buffer.remaining() / Double.BYTES);
+            this.buffer.asDoubleBuffer().get(values, offset, count);
+            this.buffer.position(this.buffer.position() + count * Double.BYTES);
+            offset += count;
+        }
+    }
+
+    public int readVarInt() throws IOException {
+        int shift = 0;
+        int result = 0;
+        while (shift < 32) {
+            final byte b = this.readByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+        }
+        throw new IOException("Malformed VarInt");
+    }
+
+    public String readUtf8(int length) throws IOException {
+        if (length <= this.buffer.remaining() || (this.channel != null && length <= this.buffer.capacity())) {
+            this.require(length);
+            String value = this.decodeUtf8(this.buffer.position(), length);
+            this.buffer.position(this.buffer.position() + length);
+            return value;
+        }
+
+        byte[] bytes = new byte[length];
+        this.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public String readNulTerminatedUtf8() throws IOException {
+        int length = this.scanNul();
+        String value = this.decodeUtf8(this.buffer.position(), length);
+        this.buffer.position(this.buffer.position() + length + 1);
+        return value;
+    }
+
+    // Returns expected itself instead of a new String when the next length bytes spell it
+    String readUtf8(int length, String expected) throws IOException {
+        if (expected == null || expected.length() != length) {
+            return this.readUtf8(length);
+        }
+
+        this.require(length);
+        if (!this.matchesAscii(this.buffer.position(), expected)) {
+            return this.readUtf8(length);
+        }
+        this.buffer.position(this.buffer.position() + length);
+        return expected;
+    }
+
+    String readNulTerminatedUtf8(String expected) throws IOException {
+        int length = this.scanNul();
+        if (expected == null || expected.length() != length || !this.matchesAscii(this.buffer.position(), expected)) {
+            return this.readNulTerminatedUtf8();
+        }
+        this.buffer.position(this.buffer.position() + length + 1);
+        return expected;
+    }
+
+    String readKey(int mapAd, String expected) throws IOException {
+        if (this.keyTable != null) return this.readKeyIndex();
+        return (mapAd & 0b1000) == 0b1000 ? this.readUtf8(this.readVarInt(), expected) : this.readNulTerminatedUtf8(expected);
+    }
+
+    private boolean matchesAscii(int index, String value) {
+        for (int i = 0; i < value.length(); ++i) {
+            char chr = value.charAt(i);
+            if (chr >= 0x80 || this.buffer.get(index + i) != chr) return false;
+        }
+        return true;
+    }
+
+    private int scanNul() throws IOException {
+        int scanned = 0;
+        while (true) {
+            int start = this.buffer.position();
+            for (int i = start + scanned, end = this.buffer.limit(); i < end; ++i) {
+                if (this.buffer.get(i) == 0) {
+                    return i - start;
+                }
+            }
+
+            scanned = this.buffer.remaining();
+            this.require(scanned + 1);
+        }
+    }
+
+    private String decodeUtf8(int index, int length) {
+        if (this.buffer.hasArray()) {
+            return new String(this.buffer.array(), this.buffer.arrayOffset() + index, length, StandardCharsets.UTF_8);
+        }
+
+        byte[] bytes = new byte[length];
+        this.buffer.get(index, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        if (!this.buffer.hasRemaining() && !this.fill()) return null;
+
+        StringBuilder b = new StringBuilder();
+        while (this.buffer.hasRemaining() || this.fill()) {
+            int chr = this.buffer.get() & 0xFF;
+            if (chr == '\n') break;
+            if (chr == '\r') {
+                if ((this.buffer.hasRemaining() || this.fill()) && this.buffer.get(this.buffer.position()) == '\n') {
+                    this.buffer.get();
+                }
+                break;
+            }
+            b.append((char) chr);
+        }
+        return b.toString();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package io.github.kalmemarq.bso;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class ByteBufferDataOutput implements DataOutput {
+    private final ByteBuffer buffer;
+    private KeyTable keyTable;
+
+    public ByteBufferDataOutput(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public ByteBufferDataOutput(byte[] array, ByteOrder order) {
+        this(ByteBuffer.wrap(array).order(order));
+    }
+
+    public ByteBuffer buffer() {
+        return this.buffer;
+    }
+
+    public int position() {
+        return this.buffer.position();
+    }
+
+    KeyTable keyTable() {
+        return this.keyTable;
+    }
+
+    void setKeyTable(KeyTable keyTable) {
+        this.keyTable = keyTable;
+    }
+
+    @Override
+    public void write(int b) {
+        this.buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b) {
+        this.buffer.put(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        this.buffer.put(b, off, len);
+    }
+
+    @Override
+    public void writeBoolean(boolean v) {
+        this.buffer.put((byte) (v ? 1 : 0));
+    }
+
+    @Override
+    public void writeByte(int v) {
+        this.buffer.put((byte) v);
+    }
+
+    @Override
+    public void writeShort(int v) {
+        this.buffer.putShort((short) v);
+    }
+
+    @Override
+    public void writeChar(int v) {
+        this.buffer.putChar((char) v);
+    }
+
+    @Override
+    public void writeInt(int v) {
+        this.buffer.putInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) {
+        this.buffer.putLong(v);
+    }
+
+    @Override
+    public void writeFloat(float v) {
+        this.buffer.putFloat(v);
+    }
+
+    @Override
+    public void writeDouble(double v) {
+        this.buffer.putDouble(v);
+    }
+
+    public void writeShorts(short[] values) {
+        this.buffer.asShortBuffer().put(values);
+        this.buffer.position(this.buffer.position() + values.length * Short.BYTES);
+    }
+
+    public void writeInts(int[] values) {
+        this.buffer.asIntBuffer().put(values);
+        this.buffer.position(this.buffer.position() + values.length * Integer.BYTES);
+    }
+
+    public void writeLongs(long[] values) {
+        this.buffer.asLongBuffer().put(values);
+        this.buffer.position(this.buffer.position() + values.length * Long.BYTES);
+    }
+
+    public void writeFloats(float[] values) {
+        this.buffer.asFloatBuffer().put(values);
+        this.buffer.position(this.buffer.position() + values.length * Float.BYTES);
+    }
+
+    public void writeDoubles(double[] values) {
+        this.buffer.asDoubleBuffer().put(values);
+        this.buffer.position(this.buffer.position() + values.length * Double.BYTES);
+    }
+
+    public void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            this.buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        this.buffer.put((byte) value);
+    }
+
+    public void writeUtf8(String value) {
+        int length = value.length();
+        int i = 0;
+
+        if (this.buffer.hasArray() && this.buffer.remaining() >= length) {
+            byte[] array = this.buffer.array();
+            int offset = this.buffer.arrayOffset() + this.buffer.position();
+            for (char chr; i < length && (chr = value.charAt(i)) < 0x80; ++i) {
+                array[offset + i] = (byte) chr;
+            }
+            this.buffer.position(this.buffer.position() + i);
+        }
+
+        for (; i < length; ++i) {
+            char chr = value.charAt(i);
+            if (chr < 0x80) {
+                this.buffer.put((byte) chr);
+            } else if (chr < 0x800) {
+                this.buffer.put((byte) (0xC0 | chr >> 6));
+                this.buffer.put((byte) (0x80 | chr & 0x3F));
+            } else if (Character.isHighSurrogate(chr) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(chr, value.charAt(++i));
+                this.buffer.put((byte) (0xF0 | codePoint >> 18));
+                this.buffer.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                this.buffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                this.buffer.put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(chr)) {
+                this.buffer.put((byte) '?');
+            } else {
+                this.buffer.put((byte) (0xE0 | chr >> 12));
+                this.buffer.put((byte) (0x80 | chr >> 6 & 0x3F));
+                this.buffer.put((byte) (0x80 | chr & 0x3F));
+            }
+        }
+    }
+
+    @Override
+    public void writeBytes(String s) {
+        for (int i = 0, len = s.length(); i < len; ++i) {
+            this.buffer.put((byte) s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeChars(String s) {
+        for (int i = 0, len = s.length(); i < len; ++i) {
+            this.buffer.putChar(s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeUTF(String s) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(s.length() + 2);
+        new DataOutputStream(bytes).writeUTF(s);
+        this.buffer.put(bytes.toByteArray());
+    }
+}
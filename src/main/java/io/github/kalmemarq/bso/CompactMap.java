@@ -0,0 +1,299 @@
+package io.github.kalmemarq.bso;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+// Backing map of BsoMap: parallel arrays of keys and values in insertion order. Maps decoded from one document share
+// their key arrays through a Shape; a map that leaves the shared shapes, or was never given any, keeps its own keys in
+// the same slots. Past MAX_KEYS the map moves into a HashMap.
+final class CompactMap extends AbstractMap<String, BsoNode> {
+    static final int MAX_KEYS = 32;
+    private static final String[] NO_KEYS = new String[0];
+    private static final int[] NO_HASHES = new int[0];
+    private static final BsoNode[] NO_VALUES = new BsoNode[0];
+
+    // null while the map owns keys and hashes
+    private Shape shape;
+    private String[] keys = NO_KEYS;
+    private int[] hashes = NO_HASHES;
+    private BsoNode[] values;
+    private int size;
+    private HashMap<String, BsoNode> hash;
+    private int modCount;
+
+    CompactMap() {
+        this(null, 0);
+    }
+
+    // expected is the number of entries about to be put, or 0 when unknown
+    CompactMap(int expected) {
+        this(null, expected);
+    }
+
+    // shapes is the root shape of the document being decoded, or null for a map that keeps its own keys
+    CompactMap(Shape shapes, int expected) {
+        if (expected > MAX_KEYS) {
+            this.hash = HashMap.newHashMap(expected);
+        } else {
+            this.shape = shapes;
+            this.values = expected == 0 ? NO_VALUES : new BsoNode[expected];
+            if (shapes == null && expected > 0) {
+                this.keys = new String[expected];
+                this.hashes = new int[expected];
+            }
+        }
+    }
+
+    // A copy with every value passed through function, sharing the key layout of source when it has one
+    static CompactMap copyOf(Map<String, BsoNode> source, UnaryOperator<BsoNode> function) {
+        if (source instanceof CompactMap map && map.hash == null && map.shape != null) {
+            CompactMap copy = new CompactMap(null, 0);
+            copy.shape = map.shape;
+            copy.keys = map.keys;
+            copy.hashes = map.hashes;
+            copy.size = map.size;
+            copy.values = new BsoNode[map.size];
+            for (int i = 0; i < map.size; ++i) {
+                copy.values[i] = function.apply(map.values[i]);
+            }
+            return copy;
+        }
+
+        CompactMap copy = new CompactMap(source.size());
+        source.forEach((key, value) -> copy.put(key, function.apply(value)));
+        return copy;
+    }
+
+    // null once the map keeps its own keys
+    Shape shape() {
+        return this.hash == null ? this.shape : null;
+    }
+
+    private int indexOf(Object key) {
+        if (!(key instanceof String k)) return -1;
+        int hash = k.hashCode();
+        for (int i = 0; i < this.size; ++i) {
+            if (this.hashes[i] == hash && this.keys[i].equals(k)) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return this.hash != null ? this.hash.size() : this.size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return this.hash != null ? this.hash.containsKey(key) : this.indexOf(key) >= 0;
+    }
+
+    @Override
+    public BsoNode get(Object key) {
+        if (this.hash != null) return this.hash.get(key);
+        int i = this.indexOf(key);
+        return i >= 0 ? this.values[i] : null;
+    }
+
+    @Override
+    public BsoNode put(String key, BsoNode value) {
+        if (this.hash != null) return this.hash.put(key, value);
+
+        Objects.requireNonNull(key);
+        int i = this.indexOf(key);
+        if (i >= 0) {
+            BsoNode previous = this.values[i];
+            this.values[i] = value;
+            return previous;
+        }
+
+        ++this.modCount;
+        int size = this.size;
+        if (size == MAX_KEYS) {
+            this.toHash().put(key, value);
+            return null;
+        }
+
+        Shape next = this.shape != null ? this.shape.with(key) : null;
+        if (next != null) {
+            this.shape = next;
+            this.keys = next.keys;
+            this.hashes = next.hashes;
+        } else {
+            this.ownKeys(size + 1);
+            this.keys[size] = key;
+            this.hashes[size] = key.hashCode();
+        }
+
+        if (size == this.values.length) {
+            this.values = Arrays.copyOf(this.values, Math.min(MAX_KEYS, Math.max(4, size * 2)));
+        }
+        this.values[size] = value;
+        this.size = size + 1;
+        return null;
+    }
+
+    // Leaves the shared shapes, keeping every key in its slot, with room for at least capacity keys
+    private void ownKeys(int capacity) {
+        if (this.shape != null || this.keys.length < capacity) {
+            int length = Math.min(MAX_KEYS, Math.max(capacity, Math.max(4, this.size * 2)));
+            this.keys = Arrays.copyOf(this.keys, length);
+            this.hashes = Arrays.copyOf(this.hashes, length);
+            this.shape = null;
+        }
+    }
+
+    @Override
+    public BsoNode remove(Object key) {
+        if (this.hash != null) return this.hash.remove(key);
+        int i = this.indexOf(key);
+        if (i < 0) return null;
+
+        BsoNode previous = this.values[i];
+        this.removeAt(i);
+        return previous;
+    }
+
+    // Later entries move down a slot whether or not the map keeps sharing, so iterators can continue from i
+    private void removeAt(int i) {
+        ++this.modCount;
+        Shape next = this.shape != null ? this.shape.without(i) : null;
+        int size = this.size - 1;
+        if (next != null) {
+            this.shape = next;
+            this.keys = next.keys;
+            this.hashes = next.hashes;
+        } else {
+            this.ownKeys(this.size);
+            System.arraycopy(this.keys, i + 1, this.keys, i, size - i);
+            System.arraycopy(this.hashes, i + 1, this.hashes, i, size - i);
+            this.keys[size] = null;
+        }
+
+        System.arraycopy(this.values, i + 1, this.values, i, size - i);
+        this.values[size] = null;
+        this.size = size;
+    }
+
+    private HashMap<String, BsoNode> toHash() {
+        HashMap<String, BsoNode> hash = HashMap.newHashMap(this.size + 1);
+        for (int i = 0; i < this.size; ++i) {
+            hash.put(this.keys[i], this.values[i]);
+        }
+        this.hash = hash;
+        this.shape = null;
+        this.keys = NO_KEYS;
+        this.hashes = NO_HASHES;
+        this.values = null;
+        this.size = 0;
+        return hash;
+    }
+
+    @Override
+    public void clear() {
+        if (this.hash != null) {
+            this.hash.clear();
+            return;
+        }
+
+        ++this.modCount;
+        Arrays.fill(this.values, 0, this.size, null);
+        if (this.shape != null) {
+            this.keys = NO_KEYS;
+            this.hashes = NO_HASHES;
+            this.shape = null;
+        } else {
+            Arrays.fill(this.keys, 0, this.size, null);
+        }
+        this.size = 0;
+    }
+
+    @Override
+    public Set<Entry<String, BsoNode>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, BsoNode>> iterator() {
+                if (CompactMap.this.hash != null) return CompactMap.this.hash.entrySet().iterator();
+
+                return new Iterator<>() {
+                    private int next;
+                    private int last = -1;
+                    private int expectedModCount = CompactMap.this.modCount;
+
+                    @Override
+                    public boolean hasNext() {
+                        return this.next < CompactMap.this.size();
+                    }
+
+                    @Override
+                    public Entry<String, BsoNode> next() {
+                        if (CompactMap.this.modCount != this.expectedModCount) throw new ConcurrentModificationException();
+                        if (!this.hasNext()) throw new NoSuchElementException();
+                        this.last = this.next++;
+                        return new Slot(this.last);
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (this.last < 0) throw new IllegalStateException();
+                        if (CompactMap.this.modCount != this.expectedModCount) throw new ConcurrentModificationException();
+                        CompactMap.this.removeAt(this.last);
+                        this.expectedModCount = CompactMap.this.modCount;
+                        this.next = this.last;
+                        this.last = -1;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CompactMap.this.size();
+            }
+        };
+    }
+
+    private final class Slot implements Entry<String, BsoNode> {
+        private final String key;
+        private final int index;
+
+        Slot(int index) {
+            this.key = CompactMap.this.keys[index];
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return this.key;
+        }
+
+        // an entry kept past the map moving into a HashMap looks its key up there
+        @Override
+        public BsoNode getValue() {
+            if (CompactMap.this.hash != null) return CompactMap.this.hash.get(this.key);
+            return CompactMap.this.values[this.index];
+        }
+
+        @Override
+        public BsoNode setValue(BsoNode value) {
+            if (CompactMap.this.hash != null) return CompactMap.this.hash.put(this.key, value);
+            BsoNode previous = CompactMap.this.values[this.index];
+            CompactMap.this.values[this.index] = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Entry<?, ?> e && this.key.equals(e.getKey()) && Objects.equals(this.getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return this.key.hashCode() ^ Objects.hashCode(this.getValue());
+        }
+
+        @Override
+        public String toString() {
+            return this.key + "=" + this.getValue();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package io.github.kalmemarq.bso;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+final class DeflateCodec implements BsoCodec {
+    @Override
+    public int getId() {
+        return 1;
+    }
+
+    @Override
+    public String getName() {
+        return "deflate";
+    }
+
+    @Override
+    public int getDefaultLevel() {
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out, int level) {
+        Deflater deflater = new Deflater(level);
+        return new DeflaterOutputStream(out, deflater, 8192) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) {
+        Inflater inflater = new Inflater();
+        return new InflaterInputStream(in, inflater, 8192) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
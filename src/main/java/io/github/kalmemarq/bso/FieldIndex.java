@@ -0,0 +1,155 @@
+package io.github.kalmemarq.bso;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Footer written after the root map listing where each of its values starts, so BsoUtils.readField can read one without decoding its siblings.
+// [varint field count] then per field [varint parent][varint key len][UTF-8 key][u64 adid][u64 value offset][u64 value len],
+// then [u64 footer offset][u32 'BSOF']. Root keys have parent 0, second-level keys 1 + their parent's field index; offsets count from the header byte.
+final class FieldIndex {
+    static final int MAGIC = 0x42534F46; // BSOF
+    static final int TRAILER_SIZE = 12;
+    static final int MAX_DEPTH = 2;
+
+    private FieldIndex() {
+    }
+
+    static long size(BsoNode root, int depth) {
+        if (depth == 0 || !(root instanceof BsoMap)) return 0;
+
+        List<String> keys = new ArrayList<>();
+        List<Integer> parents = new ArrayList<>();
+        collect(root, 0, depth, keys, parents);
+
+        long size = BsoUtils.getVarIntSize(keys.size()) + TRAILER_SIZE;
+        for (int i = 0; i < keys.size(); ++i) {
+            int length = BsoUtils.getUtf8Length(keys.get(i));
+            size += BsoUtils.getVarIntSize(parents.get(i)) + BsoUtils.getVarIntSize(length) + length + 3 * Long.BYTES;
+        }
+        return size;
+    }
+
+    // Same order the fields are found in when parsing the encoded map back
+    private static void collect(BsoNode map, int parent, int depth, List<String> keys, List<Integer> parents) {
+        for (var entry : ((BsoMap) map).map().entrySet()) {
+            int index = keys.size();
+            keys.add(entry.getKey());
+            parents.add(parent);
+            if (depth > 1 && entry.getValue() instanceof BsoMap) {
+                collect(entry.getValue(), index + 1, depth - 1, keys, parents);
+            }
+        }
+    }
+
+    // Parses the document just encoded between start and the output's position and appends the footer after it
+    static void write(ByteBufferDataOutput out, int start, int depth) {
+        ByteBuffer buffer = out.buffer();
+        ByteBufferDataInput in = new ByteBufferDataInput(buffer.slice(start, buffer.position() - start).order(buffer.order()));
+        List<Field> fields = new ArrayList<>();
+        try {
+            if ((in.readUnsignedByte() & 0b0010) != 0) {
+                in.setKeyTable(KeyTable.read(in));
+            }
+
+            long adid = BsoUtils.readADID(in);
+            if ((int) adid != 0b0111) return;
+            parse(in, (int) (adid >>> 32), 0, depth, fields);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        long offset = buffer.position() - start;
+        out.writeVarInt(fields.size());
+        for (Field field : fields) {
+            out.writeVarInt(field.parent);
+            out.writeVarInt(BsoUtils.getUtf8Length(field.key));
+            out.writeUtf8(field.key);
+            out.writeLong((long) field.ad << 32 | field.id);
+            out.writeLong(field.offset);
+            out.writeLong(field.length);
+        }
+        out.writeLong(offset);
+        out.writeInt(MAGIC);
+    }
+
+    private static void parse(ByteBufferDataInput in, int mapAd, int parent, int depth, List<Field> fields) throws IOException {
+        int length = BsoUtils.readLength(in, mapAd);
+        for (int i = 0; length < 0 || i < length; ++i) {
+            long adid = BsoUtils.readADID(in);
+            if (adid == 0 && length < 0) break;
+            int ad = (int) (adid >>> 32);
+            int id = (int) adid;
+
+            String key = BsoUtils.readBsoMapKey(in, mapAd);
+            int offset = in.position();
+            int index = fields.size();
+            fields.add(null);
+            if (depth > 1 && id == 0b0111) {
+                parse(in, ad, index + 1, depth - 1, fields);
+            } else {
+                BsoUtils.skipBsoNode(in, id, ad);
+            }
+            fields.set(index, new Field(parent, key, ad, id, offset, in.position() - offset));
+        }
+    }
+
+    // The channel holds the document from byte base on; returns null when the document ends without a field index
+    static List<Field> read(SeekableByteChannel channel, long base, ByteOrder order) throws IOException {
+        long size = channel.size() + base;
+        if (size < 1 + TRAILER_SIZE) return null;
+
+        ByteBuffer trailer = readFully(channel, size - TRAILER_SIZE - base, TRAILER_SIZE).order(order);
+        long offset = trailer.getLong(0);
+        if (trailer.getInt(8) != MAGIC) return null;
+        if (offset < 1 || offset > size - TRAILER_SIZE || size - TRAILER_SIZE - offset > BsoUtils.MAX_ARRAY_SIZE) {
+            throw new IOException("Corrupt BSO field index");
+        }
+
+        ByteBufferDataInput in = new ByteBufferDataInput(readFully(channel, offset - base, (int) (size - TRAILER_SIZE - offset)).order(order));
+        int count = in.readVarInt();
+        if (count < 0) {
+            throw new IOException("Invalid field index size " + count);
+        }
+
+        List<Field> fields = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            int parent = in.readVarInt();
+            String key = in.readUtf8(in.readVarInt());
+            long adid = in.readLong();
+            Field field = new Field(parent, key, (int) (adid >>> 32), (int) adid, in.readLong(), in.readLong());
+            if (parent < 0 || parent > i || field.offset < 1 || field.length < 0 || field.offset + field.length > offset) {
+                throw new IOException("Corrupt BSO field index entry '" + key + "'");
+            }
+            fields.add(field);
+        }
+        return fields;
+    }
+
+    // Index of the field, or -1; pass -1 as the parent for a root key
+    static int find(List<Field> fields, int parent, String key) {
+        for (int i = parent + 1; i < fields.size(); ++i) {
+            Field field = fields.get(i);
+            if (field.parent == parent + 1 && field.key.equals(key)) return i;
+        }
+        return -1;
+    }
+
+    private static ByteBuffer readFully(SeekableByteChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        channel.position(position);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Truncated BSO field index");
+            }
+        }
+        return buffer.flip();
+    }
+
+    record Field(int parent, String key, int ad, int id, long offset, long length) {
+    }
+}
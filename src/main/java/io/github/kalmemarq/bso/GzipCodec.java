@@ -0,0 +1,39 @@
+package io.github.kalmemarq.bso;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+final class GzipCodec implements BsoCodec {
+    @Override
+    public int getId() {
+        return GZIP_ID;
+    }
+
+    @Override
+    public String getName() {
+        return "gzip";
+    }
+
+    @Override
+    public int getDefaultLevel() {
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out, int level) throws IOException {
+        return new GZIPOutputStream(out, 8192) {
+            {
+                this.def.setLevel(level);
+            }
+        };
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+        return new GZIPInputStream(in, 8192);
+    }
+}
@@ -0,0 +1,68 @@
+package io.github.kalmemarq.bso;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Direct-mapped cache from the raw UTF-8 bytes of a map key to a shared String
+final class KeyCache {
+    private static final int MAX_KEY_LENGTH = 64;
+
+    private final byte[][] keys;
+    private final String[] values;
+    private final int mask;
+
+    KeyCache(int size) {
+        int capacity = Integer.highestOneBit(Math.max(1, Math.min(size, 1 << 30)));
+        if (capacity < size) capacity <<= 1;
+        this.keys = new byte[capacity][];
+        this.values = new String[capacity];
+        this.mask = capacity - 1;
+    }
+
+    String get(ByteBuffer buffer, int index, int length) {
+        if (length > MAX_KEY_LENGTH) {
+            return decode(buffer, index, length);
+        }
+
+        int hash = 1;
+        for (int i = 0; i < length; ++i) {
+            hash = 31 * hash + buffer.get(index + i);
+        }
+        int slot = (hash ^ hash >>> 16) & this.mask;
+
+        byte[] key = this.keys[slot];
+        if (key != null && key.length == length && matches(buffer, index, key)) {
+            return this.values[slot];
+        }
+
+        key = new byte[length];
+        buffer.get(index, key);
+        String value = new String(key, StandardCharsets.UTF_8);
+        this.keys[slot] = key;
+        this.values[slot] = value;
+        return value;
+    }
+
+    private static boolean matches(ByteBuffer buffer, int index, byte[] key) {
+        if (buffer.hasArray()) {
+            int from = buffer.arrayOffset() + index;
+            return Arrays.equals(buffer.array(), from, from + key.length, key, 0, key.length);
+        }
+
+        for (int i = 0; i < key.length; ++i) {
+            if (buffer.get(index + i) != key[i]) return false;
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer buffer, int index, int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + index, length, StandardCharsets.UTF_8);
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(index, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,80 @@
+package io.github.kalmemarq.bso;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Document-level key dictionary, most frequent keys first so they get the shortest varint indexes
+final class KeyTable {
+    private final String[] keys;
+    private final Map<String, Integer> indexes;
+
+    private KeyTable(String[] keys) {
+        this.keys = keys;
+        this.indexes = new HashMap<>(keys.length * 2);
+        for (int i = 0; i < keys.length; ++i) {
+            this.indexes.put(keys[i], i);
+        }
+    }
+
+    static KeyTable collect(BsoNode root) {
+        Map<String, int[]> counts = new HashMap<>();
+        count(root, counts);
+
+        String[] keys = counts.keySet().toArray(new String[0]);
+        Arrays.sort(keys, (a, b) -> Integer.compare(counts.get(b)[0], counts.get(a)[0]));
+        return new KeyTable(keys);
+    }
+
+    private static void count(BsoNode node, Map<String, int[]> counts) {
+        if (node instanceof BsoMap map) {
+            for (var entry : map.map().entrySet()) {
+                ++counts.computeIfAbsent(entry.getKey(), k -> new int[1])[0];
+                count(entry.getValue(), counts);
+            }
+        } else if (node instanceof BsoList list) {
+            for (BsoNode child : list.list()) {
+                count(child, counts);
+            }
+        }
+    }
+
+    int indexOf(String key) {
+        Integer index = this.indexes.get(key);
+        if (index == null) {
+            throw new IllegalStateException("Key '" + key + "' is not in the key table");
+        }
+        return index;
+    }
+
+    long size() {
+        long size = BsoUtils.getVarIntSize(this.keys.length);
+        for (String key : this.keys) {
+            int length = BsoUtils.getUtf8Length(key);
+            size += BsoUtils.getVarIntSize(length) + length;
+        }
+        return size;
+    }
+
+    void write(ByteBufferDataOutput out) {
+        out.writeVarInt(this.keys.length);
+        for (String key : this.keys) {
+            out.writeVarInt(BsoUtils.getUtf8Length(key));
+            out.writeUtf8(key);
+        }
+    }
+
+    static String[] read(ByteBufferDataInput in) throws IOException {
+        int count = in.readVarInt();
+        if (count < 0) {
+            throw new IOException("Invalid key table size " + count);
+        }
+
+        String[] keys = new String[count];
+        for (int i = 0; i < count; ++i) {
+            keys[i] = in.readUtf8(in.readVarInt());
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,116 @@
+package io.github.kalmemarq.bso;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// List view that finds its elements as far as they are asked for and decodes each one when it is first read. Scanning and
+// decoding are synchronized so a lazy tree can be read from several threads, changing it is as unsafe as with any other BsoList.
+final class LazyList extends AbstractList<BsoNode> {
+    private final ByteBufferDataInput input;
+    private int length;
+    private int[] offsets;
+    private long[] adids;
+    private BsoNode[] values;
+    private int scanned;
+    private List<BsoNode> materialized;
+
+    LazyList(ByteBufferDataInput input, int length) {
+        this.input = input;
+        this.length = length;
+
+        // an element takes at least a byte, so a corrupt length can not make this allocate more than the input
+        int capacity = length < 0 ? 16 : Math.min(length, input.remaining());
+        this.offsets = new int[capacity];
+        this.adids = new long[capacity];
+        this.values = new BsoNode[capacity];
+    }
+
+    private void scanTo(int index) {
+        try {
+            while (this.scanned <= index && (this.length < 0 || this.scanned < this.length)) {
+                if (this.scanned > 0) {
+                    long previous = this.adids[this.scanned - 1];
+                    BsoUtils.skipBsoNode(this.input, (int) (previous & 0xFFFFFFFFL), (int) ((previous >> 32L) & 0xFFFFFFFFL));
+                }
+
+                long adid = BsoUtils.readADID(this.input);
+                if (adid == 0 && this.length < 0) {
+                    this.length = this.scanned;
+                    break;
+                }
+
+                if (this.scanned == this.offsets.length) {
+                    int grown = Math.max(16, this.scanned * 2);
+                    this.offsets = Arrays.copyOf(this.offsets, grown);
+                    this.adids = Arrays.copyOf(this.adids, grown);
+                    this.values = Arrays.copyOf(this.values, grown);
+                }
+
+                this.adids[this.scanned] = adid;
+                this.offsets[this.scanned] = this.input.position();
+                ++this.scanned;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private synchronized List<BsoNode> materialize() {
+        if (this.materialized == null) {
+            int size = this.size();
+            List<BsoNode> list = new ArrayList<>(size);
+            for (int i = 0; i < size; ++i) {
+                list.add(this.get(i));
+            }
+            this.materialized = list;
+        }
+        return this.materialized;
+    }
+
+    @Override
+    public synchronized BsoNode get(int index) {
+        if (this.materialized != null) return this.materialized.get(index);
+        if (index < 0) throw new IndexOutOfBoundsException(index);
+
+        this.scanTo(index);
+        if (index >= this.scanned) throw new IndexOutOfBoundsException(index);
+
+        BsoNode value = this.values[index];
+        if (value == null) {
+            long adid = this.adids[index];
+            try {
+                value = BsoUtils.readLazyNode(this.input.duplicate(this.offsets[index]), (int) (adid & 0xFFFFFFFFL), (int) ((adid >> 32L) & 0xFFFFFFFFL));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.values[index] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public synchronized int size() {
+        if (this.materialized != null) return this.materialized.size();
+        if (this.length < 0) this.scanTo(Integer.MAX_VALUE - 1);
+        return this.length;
+    }
+
+    @Override
+    public BsoNode set(int index, BsoNode element) {
+        return this.materialize().set(index, element);
+    }
+
+    @Override
+    public void add(int index, BsoNode element) {
+        this.materialize().add(index, element);
+    }
+
+    @Override
+    public BsoNode remove(int index) {
+        return this.materialize().remove(index);
+    }
+}
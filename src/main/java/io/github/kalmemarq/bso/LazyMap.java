@@ -0,0 +1,174 @@
+package io.github.kalmemarq.bso;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+// Map view that indexes its entries on first access and decodes each value when it is first read. Indexing and decoding
+// are synchronized so a lazy tree can be read from several threads, changing it is as unsafe as with any other BsoMap.
+final class LazyMap extends AbstractMap<String, BsoNode> {
+    private final ByteBufferDataInput input;
+    private final int length;
+    private final int ad;
+    private int count;
+    private String[] keys;
+    private int[] offsets;
+    private long[] adids;
+    private BsoNode[] values;
+    private Map<String, Integer> slots;
+    private Map<String, BsoNode> materialized;
+
+    LazyMap(ByteBufferDataInput input, int length, int ad) {
+        this.input = input;
+        this.length = length;
+        this.ad = ad;
+    }
+
+    private synchronized void index() {
+        if (this.slots != null) return;
+
+        // an entry takes at least two bytes, so a corrupt length can not make this allocate more than the input
+        int capacity = this.length < 0 ? 16 : Math.min(this.length, this.input.remaining() / 2);
+        String[] keys = new String[capacity];
+        int[] offsets = new int[capacity];
+        long[] adids = new long[capacity];
+        Map<String, Integer> slots = new HashMap<>(capacity);
+
+        int count = 0;
+        try {
+            for (; this.length < 0 || count < this.length; ++count) {
+                long adid = BsoUtils.readADID(this.input);
+                if (adid == 0 && this.length < 0) break;
+                int ead = (int) ((adid >> 32L) & 0xFFFFFFFFL);
+                int eid = (int) (adid & 0xFFFFFFFFL);
+
+                if (count == keys.length) {
+                    int grown = Math.max(16, count * 2);
+                    keys = Arrays.copyOf(keys, grown);
+                    offsets = Arrays.copyOf(offsets, grown);
+                    adids = Arrays.copyOf(adids, grown);
+                }
+
+                keys[count] = BsoUtils.readBsoMapKey(this.input, this.ad);
+                offsets[count] = this.input.position();
+                adids[count] = adid;
+                BsoUtils.skipBsoNode(this.input, eid, ead);
+
+                Integer previous = slots.put(keys[count], count);
+                if (previous != null) keys[previous] = null;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        this.count = count;
+        this.keys = keys;
+        this.offsets = offsets;
+        this.adids = adids;
+        this.values = new BsoNode[count];
+        this.slots = slots;
+    }
+
+    private synchronized BsoNode value(int slot) {
+        BsoNode value = this.values[slot];
+        if (value == null) {
+            long adid = this.adids[slot];
+            try {
+                value = BsoUtils.readLazyNode(this.input.duplicate(this.offsets[slot]), (int) (adid & 0xFFFFFFFFL), (int) ((adid >> 32L) & 0xFFFFFFFFL));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.values[slot] = value;
+        }
+        return value;
+    }
+
+    private synchronized Map<String, BsoNode> materialize() {
+        if (this.materialized == null) {
+            this.index();
+            Map<String, BsoNode> map = new CompactMap(this.input.shapes(), this.slots.size());
+            for (int i = 0; i < this.count; ++i) {
+                if (this.keys[i] != null) map.put(this.keys[i], this.value(i));
+            }
+            this.materialized = map;
+        }
+        return this.materialized;
+    }
+
+    @Override
+    public int size() {
+        if (this.materialized != null) return this.materialized.size();
+        this.index();
+        return this.slots.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (this.materialized != null) return this.materialized.containsKey(key);
+        this.index();
+        return this.slots.containsKey(key);
+    }
+
+    @Override
+    public BsoNode get(Object key) {
+        if (this.materialized != null) return this.materialized.get(key);
+        this.index();
+        Integer slot = this.slots.get(key);
+        return slot == null ? null : this.value(slot);
+    }
+
+    @Override
+    public BsoNode put(String key, BsoNode value) {
+        return this.materialize().put(key, value);
+    }
+
+    @Override
+    public BsoNode remove(Object key) {
+        return this.materialize().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        this.materialize().clear();
+    }
+
+    @Override
+    public Set<Entry<String, BsoNode>> entrySet() {
+        if (this.materialized != null) return this.materialized.entrySet();
+        this.index();
+
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, BsoNode>> iterator() {
+                if (LazyMap.this.materialized != null) return LazyMap.this.materialized.entrySet().iterator();
+
+                return new Iterator<>() {
+                    private int next = this.advance(0);
+
+                    private int advance(int from) {
+                        while (from < LazyMap.this.count && LazyMap.this.keys[from] == null) ++from;
+                        return from;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return this.next < LazyMap.this.count;
+                    }
+
+                    @Override
+                    public Entry<String, BsoNode> next() {
+                        if (!this.hasNext()) throw new NoSuchElementException();
+                        int slot = this.next;
+                        this.next = this.advance(slot + 1);
+                        return new SimpleImmutableEntry<>(LazyMap.this.keys[slot], LazyMap.this.value(slot));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return LazyMap.this.size();
+            }
+        };
+    }
+}
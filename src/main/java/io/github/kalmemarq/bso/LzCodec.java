@@ -0,0 +1,332 @@
+package io.github.kalmemarq.bso;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// LZ77 byte codec in the style of LZ4: greedy matching on a 4-byte hash, 64KiB window, no entropy coding.
+// The stream is a sequence of blocks, each [i32 raw length][i32 stored length][data], ended by a raw length of 0.
+// A block whose stored length equals its raw length is stored uncompressed.
+final class LzCodec implements BsoCodec {
+    static final int BLOCK_SIZE = 256 * 1024;
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_BITS = 14;
+    private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    @Override
+    public int getId() {
+        return 2;
+    }
+
+    @Override
+    public String getName() {
+        return "lz";
+    }
+
+    @Override
+    public int getDefaultLevel() {
+        return 1;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out, int level) {
+        return new LzOutputStream(out, level < 0 ? this.getDefaultLevel() : level);
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) {
+        return new LzInputStream(in);
+    }
+
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    // Higher levels give up on incompressible data more slowly, finding more matches at the cost of speed
+    static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int[] table, int level) {
+        int srcEnd = srcOff + srcLen;
+        int matchLimit = srcEnd - LAST_LITERALS;
+        int skipShift = 5 + Math.min(Math.max(level, 1), 9);
+        int anchor = srcOff;
+        int ip = srcOff;
+        int op = dstOff;
+
+        Arrays.fill(table, -1);
+
+        while (ip + MIN_MATCH <= matchLimit) {
+            int sequence = (int) INT_LE.get(src, ip);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int ref = table[hash];
+            table[hash] = ip;
+
+            if (ref < 0 || ip - ref > MAX_OFFSET || (int) INT_LE.get(src, ref) != sequence) {
+                ip += 1 + ((ip - anchor) >>> skipShift);
+                continue;
+            }
+
+            while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                --ip;
+                --ref;
+            }
+
+            int length = MIN_MATCH;
+            while (ip + length < matchLimit && src[ref + length] == src[ip + length]) {
+                ++length;
+            }
+
+            op = writeSequence(src, anchor, ip - anchor, dst, op, ip - ref, length);
+            ip += length;
+            anchor = ip;
+        }
+
+        return writeSequence(src, anchor, srcEnd - anchor, dst, op, 0, 0) - dstOff;
+    }
+
+    private static int writeSequence(byte[] src, int literalsOff, int literals, byte[] dst, int op, int offset, int matchLength) {
+        int token = op++;
+        int matchCode = matchLength - MIN_MATCH;
+        dst[token] = (byte) ((Math.min(literals, 15) << 4) | (matchLength == 0 ? 0 : Math.min(matchCode, 15)));
+
+        if (literals >= 15) {
+            op = writeLength(dst, op, literals - 15);
+        }
+        System.arraycopy(src, literalsOff, dst, op, literals);
+        op += literals;
+
+        if (matchLength != 0) {
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            if (matchCode >= 15) {
+                op = writeLength(dst, op, matchCode - 15);
+            }
+        }
+        return op;
+    }
+
+    private static int writeLength(byte[] dst, int op, int length) {
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen) throws IOException {
+        int ip = srcOff;
+        int srcEnd = srcOff + srcLen;
+        int op = dstOff;
+        int dstEnd = dstOff + dstLen;
+
+        try {
+            while (ip < srcEnd) {
+                int token = src[ip++] & 0xFF;
+
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                if (literals > srcEnd - ip || literals > dstEnd - op) {
+                    throw new IOException("Corrupt LZ block");
+                }
+                System.arraycopy(src, ip, dst, op, literals);
+                ip += literals;
+                op += literals;
+
+                if (ip == srcEnd) break;
+
+                int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+                ip += 2;
+
+                int length = token & 0xF;
+                if (length == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        length += b;
+                    } while (b == 255);
+                }
+                length += MIN_MATCH;
+
+                int ref = op - offset;
+                if (offset == 0 || ref < dstOff || length > dstEnd - op) {
+                    throw new IOException("Corrupt LZ block");
+                }
+
+                if (offset >= length) {
+                    System.arraycopy(dst, ref, dst, op, length);
+                    op += length;
+                } else {
+                    for (int end = op + length; op < end; ++op, ++ref) {
+                        dst[op] = dst[ref];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt LZ block", e);
+        }
+
+        if (op != dstEnd) {
+            throw new IOException("Corrupt LZ block");
+        }
+    }
+
+    static final class LzOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final int level;
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private final byte[] compressed = new byte[8 + maxCompressedLength(BLOCK_SIZE)];
+        private final int[] table = new int[1 << HASH_BITS];
+        private int length;
+        private boolean closed;
+
+        LzOutputStream(OutputStream out, int level) {
+            this.out = out;
+            this.level = level;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (this.length == BLOCK_SIZE) this.writeBlock();
+            this.block[this.length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (this.length == BLOCK_SIZE) this.writeBlock();
+                int n = Math.min(len, BLOCK_SIZE - this.length);
+                System.arraycopy(b, off, this.block, this.length, n);
+                this.length += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (this.length == 0) return;
+
+            int stored = compress(this.block, 0, this.length, this.compressed, 8, this.table, this.level);
+            INT_BE.set(this.compressed, 0, this.length);
+            if (stored >= this.length) {
+                INT_BE.set(this.compressed, 4, this.length);
+                this.out.write(this.compressed, 0, 8);
+                this.out.write(this.block, 0, this.length);
+            } else {
+                INT_BE.set(this.compressed, 4, stored);
+                this.out.write(this.compressed, 0, 8 + stored);
+            }
+            this.length = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.writeBlock();
+            this.out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed) return;
+            this.closed = true;
+            try {
+                this.writeBlock();
+                this.out.write(new byte[4]);
+            } finally {
+                this.out.close();
+            }
+        }
+    }
+
+    static final class LzInputStream extends InputStream {
+        private final InputStream in;
+        private final byte[] header = new byte[8];
+        private byte[] block = new byte[0];
+        private byte[] compressed = new byte[0];
+        private int position;
+        private int length;
+        private boolean finished;
+
+        LzInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        private boolean nextBlock() throws IOException {
+            if (this.finished) return false;
+
+            this.readFully(this.header, 0, 4);
+            int raw = (int) INT_BE.get(this.header, 0);
+            if (raw == 0) {
+                this.finished = true;
+                return false;
+            }
+
+            this.readFully(this.header, 4, 4);
+            int stored = (int) INT_BE.get(this.header, 4);
+            if (raw < 0 || raw > BLOCK_SIZE || stored < 0 || stored > raw) {
+                throw new IOException("Corrupt LZ block header");
+            }
+
+            if (this.block.length < raw) this.block = new byte[raw];
+            if (stored == raw) {
+                this.readFully(this.block, 0, raw);
+            } else {
+                if (this.compressed.length < stored) this.compressed = new byte[stored];
+                this.readFully(this.compressed, 0, stored);
+                decompress(this.compressed, 0, stored, this.block, 0, raw);
+            }
+
+            this.position = 0;
+            this.length = raw;
+            return true;
+        }
+
+        private void readFully(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = this.in.read(b, off, len);
+                if (n < 0) throw new EOFException("Truncated LZ stream");
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.position == this.length && !this.nextBlock()) return -1;
+            return this.block[this.position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (this.position == this.length && !this.nextBlock()) return -1;
+
+            int n = Math.min(len, this.length - this.position);
+            System.arraycopy(this.block, this.position, b, off, n);
+            this.position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return this.length - this.position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package io.github.kalmemarq.bso;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+// Immutable radix balanced vector backing persistent BsoLists: a trie of 32 wide nodes plus a tail for the last leaf.
+// with, withAdded and removing the last element copy only the O(log32 n) nodes on one path and share the rest.
+final class PersistentList extends AbstractList<BsoNode> implements RandomAccess {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final Object[] EMPTY_NODE = new Object[WIDTH];
+    static final PersistentList EMPTY = new PersistentList(0, BITS, EMPTY_NODE, new Object[0]);
+
+    private final int size;
+    private final int shift;
+    private final Object[] root;
+    private final Object[] tail;
+
+    private PersistentList(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    // A list of values with every value passed through function
+    static PersistentList of(List<? extends BsoNode> values, UnaryOperator<BsoNode> function) {
+        PersistentList list = EMPTY;
+        int i = 0;
+        for (; i + WIDTH <= values.size(); i += WIDTH) {
+            Object[] leaf = new Object[WIDTH];
+            for (int j = 0; j < WIDTH; ++j) {
+                leaf[j] = function.apply(values.get(i + j));
+            }
+            list = list.withLeaf(leaf);
+        }
+        for (; i < values.size(); ++i) {
+            list = list.withAdded(function.apply(values.get(i)));
+        }
+        return list;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public BsoNode get(int index) {
+        Objects.checkIndex(index, this.size);
+        return (BsoNode) this.leafFor(index)[index & MASK];
+    }
+
+    private int tailOffset() {
+        return this.size < WIDTH ? 0 : ((this.size - 1) >>> BITS) << BITS;
+    }
+
+    private Object[] leafFor(int index) {
+        if (index >= this.tailOffset()) return this.tail;
+        Object[] node = this.root;
+        for (int level = this.shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    PersistentList with(int index, BsoNode value) {
+        Objects.checkIndex(index, this.size);
+        if (index >= this.tailOffset()) {
+            Object[] tail = this.tail.clone();
+            tail[index & MASK] = value;
+            return new PersistentList(this.size, this.shift, this.root, tail);
+        }
+        return new PersistentList(this.size, this.shift, assoc(this.shift, this.root, index, value), this.tail);
+    }
+
+    private static Object[] assoc(int level, Object[] node, int index, BsoNode value) {
+        Object[] copy = node.clone();
+        if (level == 0) {
+            copy[index & MASK] = value;
+        } else {
+            int i = (index >>> level) & MASK;
+            copy[i] = assoc(level - BITS, (Object[]) node[i], index, value);
+        }
+        return copy;
+    }
+
+    PersistentList withAdded(BsoNode value) {
+        if (this.size - this.tailOffset() < WIDTH) {
+            Object[] tail = Arrays.copyOf(this.tail, this.tail.length + 1);
+            tail[this.tail.length] = value;
+            return new PersistentList(this.size + 1, this.shift, this.root, tail);
+        }
+        return this.pushTail(new Object[]{value}, 1);
+    }
+
+    // Only while the tail is full or the list is empty, appends a whole leaf at once
+    private PersistentList withLeaf(Object[] leaf) {
+        if (this.size == 0) return new PersistentList(WIDTH, BITS, EMPTY_NODE, leaf);
+        return this.pushTail(leaf, WIDTH);
+    }
+
+    // Moves the full tail into the trie and starts a new one
+    private PersistentList pushTail(Object[] tail, int added) {
+        if ((this.size >>> BITS) > (1 << this.shift)) {
+            Object[] root = new Object[WIDTH];
+            root[0] = this.root;
+            root[1] = newPath(this.shift, this.tail);
+            return new PersistentList(this.size + added, this.shift + BITS, root, tail);
+        }
+        return new PersistentList(this.size + added, this.shift, this.pushTail(this.shift, this.root, this.tail), tail);
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] leaf) {
+        int i = ((this.size - 1) >>> level) & MASK;
+        Object[] copy = parent.clone();
+        if (level == BITS) {
+            copy[i] = leaf;
+        } else {
+            Object[] child = (Object[]) parent[i];
+            copy[i] = child != null ? this.pushTail(level - BITS, child, leaf) : newPath(level - BITS, leaf);
+        }
+        return copy;
+    }
+
+    private static Object[] newPath(int level, Object[] leaf) {
+        if (level == 0) return leaf;
+        Object[] node = new Object[WIDTH];
+        node[0] = newPath(level - BITS, leaf);
+        return node;
+    }
+
+    // Only the last element can be removed: the trie has no relaxed nodes to splice with, so anything else would rebuild it
+    PersistentList withoutLast() {
+        Objects.checkIndex(this.size - 1, this.size);
+        if (this.size == 1) return EMPTY;
+        if (this.size - this.tailOffset() > 1) {
+            return new PersistentList(this.size - 1, this.shift, this.root, Arrays.copyOf(this.tail, this.tail.length - 1));
+        }
+
+        Object[] tail = this.leafFor(this.size - 2);
+        Object[] root = this.popTail(this.shift, this.root);
+        int shift = this.shift;
+        if (root == null) root = EMPTY_NODE;
+        if (shift > BITS && root[1] == null) {
+            root = (Object[]) root[0];
+            shift -= BITS;
+        }
+        return new PersistentList(this.size - 1, shift, root, tail);
+    }
+
+    private Object[] popTail(int level, Object[] node) {
+        int i = ((this.size - 2) >>> level) & MASK;
+        if (level > BITS) {
+            Object[] child = this.popTail(level - BITS, (Object[]) node[i]);
+            if (child == null && i == 0) return null;
+            Object[] copy = node.clone();
+            copy[i] = child;
+            return copy;
+        }
+        if (i == 0) return null;
+        Object[] copy = node.clone();
+        copy[i] = null;
+        return copy;
+    }
+}
@@ -0,0 +1,276 @@
+package io.github.kalmemarq.bso;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+// Immutable hash array mapped trie backing persistent BsoMaps: with and without copy only the O(log32 n) nodes on the path
+// to the key and share everything else with the map they were called on. Iterates in hash order.
+final class PersistentMap extends AbstractMap<String, BsoNode> {
+    static final PersistentMap EMPTY = new PersistentMap(BitmapNode.EMPTY, 0);
+    private static final int BITS = 5;
+    private static final int MASK = 31;
+    // 7 bitmap levels cover the 32 bit hash, plus a collision node
+    private static final int MAX_DEPTH = 8;
+
+    private final Node root;
+    private final int size;
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    // A map of values with every value passed through function
+    static PersistentMap of(Map<String, BsoNode> values, UnaryOperator<BsoNode> function) {
+        PersistentMap map = EMPTY;
+        for (Entry<String, BsoNode> entry : values.entrySet()) {
+            map = map.with(entry.getKey(), function.apply(entry.getValue()));
+        }
+        return map;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public BsoNode get(Object key) {
+        return key instanceof String k ? this.root.get(k, k.hashCode(), 0) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return this.get(key) != null;
+    }
+
+    PersistentMap with(String key, BsoNode value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        int hash = key.hashCode();
+        BsoNode previous = this.root.get(key, hash, 0);
+        if (previous == value) return this;
+        return new PersistentMap(this.root.with(key, hash, 0, value), previous == null ? this.size + 1 : this.size);
+    }
+
+    PersistentMap without(String key) {
+        int hash = key.hashCode();
+        if (this.root.get(key, hash, 0) == null) return this;
+        Node root = this.root.without(key, hash, 0);
+        return new PersistentMap(root != null ? root : BitmapNode.EMPTY, this.size - 1);
+    }
+
+    @Override
+    public Set<Entry<String, BsoNode>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, BsoNode>> iterator() {
+                return new Entries(PersistentMap.this.root);
+            }
+
+            @Override
+            public int size() {
+                return PersistentMap.this.size;
+            }
+        };
+    }
+
+    // Both kinds of node keep [key, value] pairs in one array, a null key marks a pair whose value is a child node
+    private abstract static sealed class Node permits BitmapNode, CollisionNode {
+        final Object[] array;
+
+        Node(Object[] array) {
+            this.array = array;
+        }
+
+        abstract BsoNode get(String key, int hash, int shift);
+
+        abstract Node with(String key, int hash, int shift, BsoNode value);
+
+        // null when the node ends up empty
+        abstract Node without(String key, int hash, int shift);
+    }
+
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+
+        BitmapNode(int bitmap, Object[] array) {
+            super(array);
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        BsoNode get(String key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((this.bitmap & bit) == 0) return null;
+            int i = 2 * Integer.bitCount(this.bitmap & (bit - 1));
+            Object k = this.array[i];
+            if (k == null) return ((Node) this.array[i + 1]).get(key, hash, shift + BITS);
+            return key.equals(k) ? (BsoNode) this.array[i + 1] : null;
+        }
+
+        @Override
+        Node with(String key, int hash, int shift, BsoNode value) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = 2 * Integer.bitCount(this.bitmap & (bit - 1));
+            if ((this.bitmap & bit) == 0) {
+                Object[] array = new Object[this.array.length + 2];
+                System.arraycopy(this.array, 0, array, 0, i);
+                array[i] = key;
+                array[i + 1] = value;
+                System.arraycopy(this.array, i, array, i + 2, this.array.length - i);
+                return new BitmapNode(this.bitmap | bit, array);
+            }
+
+            Object k = this.array[i];
+            Object v = this.array[i + 1];
+            Object[] array = this.array.clone();
+            if (k == null) {
+                array[i + 1] = ((Node) v).with(key, hash, shift + BITS, value);
+            } else if (key.equals(k)) {
+                array[i + 1] = value;
+            } else {
+                array[i] = null;
+                array[i + 1] = split(shift + BITS, (String) k, (BsoNode) v, key, hash, value);
+            }
+            return new BitmapNode(this.bitmap, array);
+        }
+
+        private static Node split(int shift, String key1, BsoNode value1, String key2, int hash2, BsoNode value2) {
+            int hash1 = key1.hashCode();
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+            }
+            return EMPTY.with(key1, hash1, shift, value1).with(key2, hash2, shift, value2);
+        }
+
+        @Override
+        Node without(String key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((this.bitmap & bit) == 0) return this;
+            int i = 2 * Integer.bitCount(this.bitmap & (bit - 1));
+
+            Object k = this.array[i];
+            if (k == null) {
+                Node child = (Node) this.array[i + 1];
+                Node updated = child.without(key, hash, shift + BITS);
+                if (updated == child) return this;
+                if (updated != null) {
+                    Object[] array = this.array.clone();
+                    array[i + 1] = updated;
+                    return new BitmapNode(this.bitmap, array);
+                }
+            } else if (!key.equals(k)) {
+                return this;
+            }
+
+            if (this.bitmap == bit) return null;
+            Object[] array = new Object[this.array.length - 2];
+            System.arraycopy(this.array, 0, array, 0, i);
+            System.arraycopy(this.array, i + 2, array, i, this.array.length - i - 2);
+            return new BitmapNode(this.bitmap & ~bit, array);
+        }
+    }
+
+    // Keys whose whole 32 bit hashes are equal
+    private static final class CollisionNode extends Node {
+        private final int hash;
+
+        CollisionNode(int hash, Object[] array) {
+            super(array);
+            this.hash = hash;
+        }
+
+        private int indexOf(String key) {
+            for (int i = 0; i < this.array.length; i += 2) {
+                if (key.equals(this.array[i])) return i;
+            }
+            return -1;
+        }
+
+        @Override
+        BsoNode get(String key, int hash, int shift) {
+            int i = hash == this.hash ? this.indexOf(key) : -1;
+            return i >= 0 ? (BsoNode) this.array[i + 1] : null;
+        }
+
+        @Override
+        Node with(String key, int hash, int shift, BsoNode value) {
+            if (hash != this.hash) {
+                return new BitmapNode(1 << ((this.hash >>> shift) & MASK), new Object[]{null, this}).with(key, hash, shift, value);
+            }
+
+            int i = this.indexOf(key);
+            Object[] array;
+            if (i >= 0) {
+                array = this.array.clone();
+            } else {
+                i = this.array.length;
+                array = Arrays.copyOf(this.array, i + 2);
+                array[i] = key;
+            }
+            array[i + 1] = value;
+            return new CollisionNode(this.hash, array);
+        }
+
+        @Override
+        Node without(String key, int hash, int shift) {
+            int i = hash == this.hash ? this.indexOf(key) : -1;
+            if (i < 0) return this;
+            if (this.array.length == 2) return null;
+            Object[] array = new Object[this.array.length - 2];
+            System.arraycopy(this.array, 0, array, 0, i);
+            System.arraycopy(this.array, i + 2, array, i, this.array.length - i - 2);
+            return new CollisionNode(this.hash, array);
+        }
+    }
+
+    private static final class Entries implements Iterator<Entry<String, BsoNode>> {
+        private final Object[][] arrays = new Object[MAX_DEPTH][];
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth;
+        private Entry<String, BsoNode> next;
+
+        Entries(Node root) {
+            this.arrays[0] = root.array;
+            this.advance();
+        }
+
+        private void advance() {
+            this.next = null;
+            while (this.depth >= 0) {
+                Object[] array = this.arrays[this.depth];
+                int i = this.positions[this.depth];
+                if (i >= array.length) {
+                    --this.depth;
+                    continue;
+                }
+
+                this.positions[this.depth] = i + 2;
+                if (array[i] == null) {
+                    ++this.depth;
+                    this.arrays[this.depth] = ((Node) array[i + 1]).array;
+                    this.positions[this.depth] = 0;
+                } else {
+                    this.next = new SimpleImmutableEntry<>((String) array[i], (BsoNode) array[i + 1]);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != null;
+        }
+
+        @Override
+        public Entry<String, BsoNode> next() {
+            Entry<String, BsoNode> next = this.next;
+            if (next == null) throw new NoSuchElementException();
+            this.advance();
+            return next;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package io.github.kalmemarq.bso;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Decodes over a previously decoded tree: maps and lists are refilled in place, arrays of the same type and length are
+// overwritten, and scalars and strings that did not change are kept, so a payload of the same shape allocates little.
+final class ReusingDecoder {
+    private ReusingDecoder() {
+    }
+
+    static BsoNode read(ByteBufferDataInput in, int id, int ad, BsoNode previous) throws IOException {
+        if (previous == null || previous.isFrozen()) {
+            return BsoUtils.readBsoNode(in, id, ad);
+        }
+
+        return switch (id) {
+            case 0b0011, 0b0100, 0b0101 -> readNumber(in, id, ad, previous);
+            case 0b0110 -> readString(in, ad, previous);
+            case 0b0111 -> previous instanceof BsoMap map ? readMap(in, ad, map) : BsoUtils.readBsoNode(in, id, ad);
+            case 0b1000 -> previous instanceof BsoList list ? readList(in, ad, list) : BsoUtils.readBsoNode(in, id, ad);
+            case 0b1001, 0b1010, 0b1011, 0b1100, 0b1101 -> readArray(in, id, ad, previous);
+            default -> keepIfEqual(BsoUtils.readBsoNode(in, id, ad), previous);
+        };
+    }
+
+    private static BsoMap readMap(ByteBufferDataInput in, int ad, BsoMap target) throws IOException {
+        Map<String, BsoNode> map = target.map();
+        int length = BsoUtils.readLength(in, ad);
+        int start = in.position();
+
+        // a payload of the same shape lists its keys in the order the map iterates them
+        Iterator<Map.Entry<String, BsoNode>> entries = map.entrySet().iterator();
+        boolean inOrder = true;
+        int count = 0;
+        for (; length < 0 || count < length; ++count) {
+            long adid = BsoUtils.readADID(in);
+            if (adid == 0 && length < 0) break;
+            int ead = (int) ((adid >> 32L) & 0xFFFFFFFFL);
+            int eid = (int) (adid & 0xFFFFFFFFL);
+
+            Map.Entry<String, BsoNode> entry = inOrder && entries.hasNext() ? entries.next() : null;
+            String key = in.readKey(ad, entry != null ? entry.getKey() : null);
+            if (entry != null && entry.getKey().equals(key)) {
+                BsoNode value = read(in, eid, ead, entry.getValue());
+                if (value != entry.getValue()) entry.setValue(value);
+                continue;
+            }
+
+            inOrder = false;
+            BsoNode old = map.get(key);
+            BsoNode value = read(in, eid, ead, old);
+            if (value != old) map.put(key, value);
+        }
+
+        if (map.size() != count) {
+            Set<String> keys = new HashSet<>();
+            ByteBufferDataInput scan = in.duplicate(start);
+            for (int i = 0; i < count; ++i) {
+                long adid = BsoUtils.readADID(scan);
+                keys.add(BsoUtils.readBsoMapKey(scan, ad));
+                BsoUtils.skipBsoNode(scan, (int) (adid & 0xFFFFFFFFL), (int) ((adid >> 32L) & 0xFFFFFFFFL));
+            }
+            map.keySet().retainAll(keys);
+        }
+        return target;
+    }
+
+    private static BsoList readList(ByteBufferDataInput in, int ad, BsoList target) throws IOException {
+        List<BsoNode> list = target.list();
+        int length = BsoUtils.readLength(in, ad);
+        int count = 0;
+        for (; length < 0 || count < length; ++count) {
+            long adid = BsoUtils.readADID(in);
+            if (adid == 0 && length < 0) break;
+            int ead = (int) ((adid >> 32L) & 0xFFFFFFFFL);
+            int eid = (int) (adid & 0xFFFFFFFFL);
+
+            if (count < list.size()) {
+                BsoNode old = list.get(count);
+                BsoNode value = read(in, eid, ead, old);
+                if (value != old) list.set(count, value);
+            } else {
+                list.add(BsoUtils.readBsoNode(in, eid, ead));
+            }
+        }
+
+        if (list.size() > count) {
+            list.subList(count, list.size()).clear();
+        }
+        return target;
+    }
+
+    private static BsoNode readString(ByteBufferDataInput in, int ad, BsoNode previous) throws IOException {
+        if (!(previous instanceof BsoString old)) {
+            return BsoUtils.readBsoNode(in, 0b0110, ad);
+        }
+
+        String value = ad == 0b0001 ? in.readNulTerminatedUtf8(old.value()) : in.readUtf8(ad == 0b0100 ? in.readInt() : ad == 0b0010 ? in.readUnsignedShort() : in.readUnsignedByte(), old.value());
+        return value == old.value() ? old : new BsoString(value);
+    }
+
+    // The common signed scalars are compared before a record is made for them
+    private static BsoNode readNumber(ByteBufferDataInput in, int id, int ad, BsoNode previous) throws IOException {
+        if (id == 0b0011 && (ad & 0b0001) == 0 && previous instanceof BsoInt old) {
+            int value = (ad & 0b0010) != 0 ? in.readByte() : (ad & 0b0100) != 0 ? in.readShort() : in.readInt();
+            return old.value() == value ? old : BsoInt.of(value);
+        }
+        if (id == 0b0100 && (ad & 0b0001) == 0 && previous instanceof BsoLong old) {
+            long value = switch (ad & 0b0110) {
+                case 0b0010 -> in.readByte();
+                case 0b0100 -> in.readShort();
+                case 0b0110 -> in.readInt();
+                default -> in.readLong();
+            };
+            return old.value() == value ? old : BsoLong.of(value);
+        }
+        if (id == 0b0101 && ad == 0 && previous instanceof BsoFloat old) {
+            float value = in.readFloat();
+            return Float.floatToIntBits(old.value()) == Float.floatToIntBits(value) ? old : new BsoFloat(value);
+        }
+        if (id == 0b0101 && ad != 0 && previous instanceof BsoDouble old) {
+            double value = in.readDouble();
+            return Double.doubleToLongBits(old.value()) == Double.doubleToLongBits(value) ? old : new BsoDouble(value);
+        }
+        return keepIfEqual(BsoUtils.readBsoNode(in, id, ad), previous);
+    }
+
+    private static BsoNode readArray(ByteBufferDataInput in, int id, int ad, BsoNode previous) throws IOException {
+        boolean unsigned = (ad & 0b0001) != 0;
+        int length = BsoUtils.readArrayLength(in, ad);
+        switch (id) {
+            case 0b1001 -> {
+                byte[] old = !unsigned && previous instanceof BsoByteArray(byte[] v) ? v : unsigned && previous instanceof BsoUByteArray(byte[] v) ? v : null;
+                byte[] array = old != null && old.length == length ? old : new byte[length];
+                in.readFully(array);
+                return array == old ? previous : unsigned ? new BsoUByteArray(array) : new BsoByteArray(array);
+            }
+            case 0b1010 -> {
+                short[] old = !unsigned && previous instanceof BsoShortArray(short[] v) ? v : unsigned && previous instanceof BsoUShortArray(short[] v) ? v : null;
+                short[] array = old != null && old.length == length ? old : new short[length];
+                in.readShorts(array);
+                return array == old ? previous : unsigned ? new BsoUShortArray(array) : new BsoShortArray(array);
+            }
+            case 0b1011 -> {
+                int[] old = !unsigned && previous instanceof BsoIntArray(int[] v) ? v : unsigned && previous instanceof BsoUIntArray(int[] v) ? v : null;
+                int[] array = old != null && old.length == length ? old : new int[length];
+                in.readInts(array);
+                return array == old ? previous : unsigned ? new BsoUIntArray(array) : new BsoIntArray(array);
+            }
+            case 0b1100 -> {
+                long[] old = !unsigned && previous instanceof BsoLongArray(long[] v) ? v : unsigned && previous instanceof BsoULongArray(long[] v) ? v : null;
+                long[] array = old != null && old.length == length ? old : new long[length];
+                in.readLongs(array);
+                return array == old ? previous : unsigned ? new BsoULongArray(array) : new BsoLongArray(array);
+            }
+            default -> {
+                if (!unsigned) {
+                    float[] old = previous instanceof BsoFloatArray(float[] v) ? v : null;
+                    float[] array = old != null && old.length == length ? old : new float[length];
+                    in.readFloats(array);
+                    return array == old ? previous : new BsoFloatArray(array);
+                }
+                double[] old = previous instanceof BsoDoubleArray(double[] v) ? v : null;
+                double[] array = old != null && old.length == length ? old : new double[length];
+                in.readDoubles(array);
+                return array == old ? previous : new BsoDoubleArray(array);
+            }
+        }
+    }
+
+    private static BsoNode keepIfEqual(BsoNode value, BsoNode previous) {
+        return value.equals(previous) ? previous : value;
+    }
+}
@@ -11,6 +11,7 @@ import java.nio.file.Path;
 import java.util.*;
 
 public class SBsoReader {
+    private final Shape shapes = Shape.root();
     private Reader reader;
     private int currChr;
     private int line;
@@ -174,10 +175,10 @@ public class SBsoReader {
             if (this.isPossibleNumericTypeIndicator()) {
                 if (this.currChr == 'l') {
                     this.read();
-                    return new BsoLong(Long.parseLong(b.toString(), radix));
+                    return BsoLong.of(Long.parseLong(b.toString(), radix));
                 } else if (this.currChr == 'i') {
                     this.read();
-                    return new BsoInt(Integer.parseInt(b.toString(), radix));
+                    return BsoInt.of(Integer.parseInt(b.toString(), radix));
                 } else if (this.currChr == 'd') {
                     this.read();
                     return new BsoDouble(Double.parseDouble(b.toString()));
@@ -186,37 +187,37 @@ public class SBsoReader {
                     return new BsoFloat(Float.parseFloat(b.toString()));
                 } else if (this.currChr == 'b') {
                     this.read();
-                    return new BsoByte(Byte.parseByte(b.toString(), radix));
+                    return BsoByte.of(Byte.parseByte(b.toString(), radix));
                 } else if (this.currChr == 's') {
                     this.read();
 
                     if (this.currChr == 'b') {
-                        return new BsoByte(Byte.parseByte(b.toString(), radix));
+                        return BsoByte.of(Byte.parseByte(b.toString(), radix));
                     } else if (this.currChr == 's') {
-                        return new BsoShort(Short.parseShort(b.toString(), radix));
+                        return BsoShort.of(Short.parseShort(b.toString(), radix));
                     } else if (this.currChr == 'l') {
-                        return new BsoLong(Long.parseLong(b.toString(), radix));
+                        return BsoLong.of(Long.parseLong(b.toString(), radix));
                     } else {
-                        return new BsoInt(Integer.parseInt(b.toString(), radix));
+                        return BsoInt.of(Integer.parseInt(b.toString(), radix));
                     }
                 } else if (this.currChr == 'u') {
                     this.read();
                     if (this.currChr == 'b') {
                         this.read();
-                        return new BsoUByte((byte) Integer.parseUnsignedInt(b.toString(), radix));
+                        return BsoUByte.of((byte) Integer.parseUnsignedInt(b.toString(), radix));
                     } else if (this.currChr == 's') {
                         this.read();
-                        return new BsoUShort((short) Integer.parseUnsignedInt(b.toString(), radix));
+                        return BsoUShort.of((short) Integer.parseUnsignedInt(b.toString(), radix));
                     } else if (this.currChr == 'l') {
                         this.read();
-                        return new BsoULong(Long.parseUnsignedLong(b.toString(), radix));
+                        return BsoULong.of(Long.parseUnsignedLong(b.toString(), radix));
                     } else {
-                        return new BsoUInt(Integer.parseUnsignedInt(b.toString(), radix));
+                        return BsoUInt.of(Integer.parseUnsignedInt(b.toString(), radix));
                     }
                 }
             }
 
-            return decimal ? new BsoDouble(Double.parseDouble(b.toString())) : new BsoInt(Integer.parseInt(b.toString(), radix));
+            return decimal ? new BsoDouble(Double.parseDouble(b.toString())) : BsoInt.of(Integer.parseInt(b.toString(), radix));
         } catch (NumberFormatException e) {
             throw new SBsoParseException(e.getMessage(), this.line, this.column);
         }
@@ -229,7 +230,7 @@ public class SBsoReader {
             return new BsoMap();
         }
 
-        Map<String, BsoNode> map = new HashMap<>();
+        Map<String, BsoNode> map = new CompactMap(this.shapes, 0);
 
         do {
             this.skipWhitespace();
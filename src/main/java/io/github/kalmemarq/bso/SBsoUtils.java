@@ -61,7 +61,7 @@ public final class SBsoUtils {
                 if (options.indent() > 0) builder.append('\n');
 
                 int i = 0;
-                for (var entry : n.properties()) {
+                for (var entry : n.map().entrySet()) {
                     if (i != 0) if (options.indent() > 0) builder.append('\n'); else builder.append(',');
 
                     if (options.indent() > 0) {
@@ -87,7 +87,7 @@ public final class SBsoUtils {
                 }
 
                 int i = 0;
-                for (var value : n) {
+                for (var value : n.list()) {
                     if (i != 0) builder.append(',');
                     stringify(builder, value, level + 1, options);
                     ++i;
@@ -0,0 +1,70 @@
+package io.github.kalmemarq.bso;
+
+import java.util.Arrays;
+
+// Ordered key set shared by the CompactMaps of one decoded document that gained the same keys in the same order, so each
+// map only stores its values. Every document (or reader) starts its own tree from root(), so the layouts one input
+// creates never affect maps decoded from another.
+final class Shape {
+    // a shape that has seen this many different next keys stops sharing, maps that need another one copy their keys
+    static final int MAX_TRANSITIONS = 32;
+    private static final Transition[] NO_TRANSITIONS = new Transition[0];
+
+    private final Shape root;
+    final String[] keys;
+    final int[] hashes;
+    private volatile Transition[] transitions = NO_TRANSITIONS;
+
+    private Shape(Shape root, String[] keys, int[] hashes) {
+        this.root = root != null ? root : this;
+        this.keys = keys;
+        this.hashes = hashes;
+    }
+
+    static Shape root() {
+        return new Shape(null, new String[0], new int[0]);
+    }
+
+    int size() {
+        return this.keys.length;
+    }
+
+    // The shape with key appended, or null when this shape has run out of transitions
+    Shape with(String key) {
+        for (Transition transition : this.transitions) {
+            if (transition.key.equals(key)) return transition.shape;
+        }
+
+        synchronized (this) {
+            Transition[] transitions = this.transitions;
+            for (Transition transition : transitions) {
+                if (transition.key.equals(key)) return transition.shape;
+            }
+            if (transitions.length == MAX_TRANSITIONS) return null;
+
+            int size = this.keys.length;
+            String[] keys = Arrays.copyOf(this.keys, size + 1);
+            int[] hashes = Arrays.copyOf(this.hashes, size + 1);
+            keys[size] = key;
+            hashes[size] = key.hashCode();
+            Shape shape = new Shape(this.root, keys, hashes);
+
+            Transition[] updated = Arrays.copyOf(transitions, transitions.length + 1);
+            updated[transitions.length] = new Transition(key, shape);
+            this.transitions = updated;
+            return shape;
+        }
+    }
+
+    // The shape without the key at slot, rebuilt from the root so it is shared too, or null
+    Shape without(int slot) {
+        Shape shape = this.root;
+        for (int i = 0; i < this.keys.length && shape != null; ++i) {
+            if (i != slot) shape = shape.with(this.keys[i]);
+        }
+        return shape;
+    }
+
+    private record Transition(String key, Shape shape) {
+    }
+}
@@ -1,4 +1,1132 @@
 package io.github.kalmemarq.bso;
 
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
 public class BsoTest {
+    @TempDir
+    Path tempDir;
+
+    private static BsoMap sampleMap() {
+        BsoMap map = new BsoMap();
+        map.putByte("byte", -5);
+        map.putInt("small", 42);
+        map.putInt("big", 1_000_000);
+        map.putLong("long", Long.MIN_VALUE);
+        map.putString("name", "Kalme");
+        map.putString("long_text", "x".repeat(100_000));
+        map.put("flag", BsoBool.TRUE);
+
+        BsoList hobbies = new BsoList();
+        hobbies.addString("coding");
+        hobbies.addString("sleeping a ton");
+        map.put("hobbies", hobbies);
+        return map;
+    }
+
+    @Test
+    void roundTripBigEndian() throws IOException {
+        BsoMap map = sampleMap();
+        Path path = this.tempDir.resolve("be.bso");
+        BsoUtils.write(path, map);
+        Assertions.assertEquals(map, BsoUtils.read(path));
+    }
+
+    @Test
+    void roundTripLittleEndian() throws IOException {
+        BsoMap map = sampleMap();
+        Path path = this.tempDir.resolve("le.bso");
+        BsoUtils.write(path, map, BsoUtils.Endianess.LITTLE);
+        Assertions.assertEquals(map, BsoUtils.read(path));
+    }
+
+    @Test
+    void roundTripCompressed() throws IOException {
+        BsoMap map = sampleMap();
+        Path path = this.tempDir.resolve("gz.bso");
+        BsoUtils.writeCompressed(path, map);
+        Assertions.assertEquals(map, BsoUtils.read(path));
+    }
+
+    @Test
+    void encodedSizeMatchesWrittenBytes() throws IOException {
+        BsoMap map = sampleMap();
+        map.putString("unicode", "h\u00e9llo \u4e16\u754c \ud83d\ude00");
+        map.putFloat("float", 0.55f);
+        map.putDouble("double", -1.25);
+
+        byte[] bytes = BsoUtils.toByteArray(map, BsoUtils.Endianess.LITTLE);
+        Assertions.assertEquals(bytes.length, BsoUtils.encodedSize(map));
+
+        Path path = this.tempDir.resolve("size.bso");
+        BsoUtils.write(path, map, BsoUtils.Endianess.LITTLE);
+        Assertions.assertArrayEquals(bytes, Files.readAllBytes(path));
+        Assertions.assertEquals(map, BsoUtils.read(path));
+    }
+
+    @Test
+    void readMapped() throws IOException {
+        BsoMap map = sampleMap();
+
+        Path le = this.tempDir.resolve("mapped_le.bso");
+        BsoUtils.write(le, map, BsoUtils.Endianess.LITTLE);
+        Assertions.assertEquals(map, BsoUtils.readMapped(le));
+
+        Path gz = this.tempDir.resolve("mapped_gz.bso");
+        BsoUtils.writeCompressed(gz, map);
+        Assertions.assertEquals(map, BsoUtils.readMapped(gz));
+        Assertions.assertEquals(map, BsoUtils.read(Files.readAllBytes(gz)));
+    }
+
+    @Test
+    void readLazy() throws IOException, InterruptedException {
+        BsoMap map = sampleMap();
+        BsoList records = new BsoList();
+        for (int i = 0; i < 1000; ++i) {
+            BsoMap record = new BsoMap();
+            record.putInt("index", i);
+            record.putString("name", "record" + i);
+            records.add(record);
+        }
+        map.put("records", records);
+
+        Path path = this.tempDir.resolve("lazy.bso");
+        BsoUtils.write(path, map);
+
+        BsoNode lazy = BsoUtils.readLazy(path);
+        Assertions.assertEquals("Kalme", lazy.get("name").asString());
+        Assertions.assertEquals(500, lazy.get("records").get(500).get("index").asInt());
+        Assertions.assertEquals("record999", lazy.path("records").path(999).path("name").asString());
+        Assertions.assertEquals(map, lazy);
+
+        ((BsoMap) lazy).putInt("extra", 1);
+        Assertions.assertEquals(map.size() + 1, lazy.size());
+
+        // a corrupt length does not get its capacity allocated up front, it is reported once the input runs out
+        Assertions.assertThrows(UncheckedIOException.class, () -> BsoUtils.readLazy(new byte[]{0, 0x47, 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xF0, 0}).size());
+        Assertions.assertThrows(UncheckedIOException.class, () -> BsoUtils.readLazy(new byte[]{0, 0x48, 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xF0, 0}).get(0));
+
+        BsoNode shared = BsoUtils.readLazy(path);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < 4; ++t) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 999; i >= 0; --i) {
+                        Assertions.assertEquals("record" + i, shared.path("records").path(i).path("name").asString());
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(List.of(), failures);
+    }
+
+    @Test
+    void roundTripArrays() throws IOException {
+        int[] heights = new int[70_000];
+        float[] samples = new float[300];
+        for (int i = 0; i < heights.length; ++i) heights[i] = i * 31;
+        for (int i = 0; i < samples.length; ++i) samples[i] = i / 3f;
+
+        BsoMap map = new BsoMap();
+        map.putShortArray("shorts", new short[]{1, -2, 300});
+        map.put("ushorts", new BsoUShortArray(new short[]{(short) 65000, 2}));
+        map.putIntArray("heights", heights);
+        map.putUIntArray("uints", new int[]{-1, 7});
+        map.putLongArray("longs", new long[]{Long.MAX_VALUE, -3});
+        map.putULongArray("ulongs", new long[]{-1L});
+        map.putFloatArray("samples", samples);
+        map.putDoubleArray("doubles", new double[]{Math.PI, -0.5});
+
+        for (BsoUtils.Endianess endianess : BsoUtils.Endianess.values()) {
+            Path path = this.tempDir.resolve("arrays_" + endianess + ".bso");
+            BsoUtils.write(path, map, endianess);
+            BsoNode read = BsoUtils.read(path);
+
+            Assertions.assertArrayEquals(heights, read.get("heights").asIntArray());
+            Assertions.assertArrayEquals(samples, read.get("samples").asFloatArray());
+            Assertions.assertArrayEquals(new short[]{(short) 65000, 2}, read.get("ushorts").asShortArray());
+            Assertions.assertTrue(read.get("ushorts") instanceof BsoUShortArray);
+            Assertions.assertTrue(read.get("ulongs") instanceof BsoULongArray);
+            Assertions.assertArrayEquals(new double[]{Math.PI, -0.5}, read.get("doubles").asDoubleArray());
+            Assertions.assertArrayEquals(new long[]{Long.MAX_VALUE, -3}, BsoUtils.readLazy(path).get("longs").asLongArray());
+        }
+    }
+
+    @Test
+    void roundTripMultibyteStrings() throws IOException {
+        BsoMap map = new BsoMap();
+        map.putString("latin", "é".repeat(200));
+        map.putString("euro", "€".repeat(30_000));
+        map.putString("emoji", "a😀b");
+        map.putString("ascii", "x".repeat(255));
+        map.putInt("ключ", 1);
+
+        Path path = this.tempDir.resolve("strings.bso");
+        BsoUtils.write(path, map);
+        Assertions.assertEquals(BsoUtils.encodedSize(map), Files.size(path));
+        Assertions.assertEquals(map, BsoUtils.read(path));
+    }
+
+    @Test
+    void internedKeys() throws IOException {
+        BsoList records = new BsoList();
+        for (int i = 0; i < 3; ++i) {
+            BsoMap record = new BsoMap();
+            record.putInt("id", i);
+            records.add(record);
+        }
+
+        byte[] bytes = BsoUtils.toByteArray(records);
+        for (BsoNode read : new BsoNode[]{BsoUtils.read(bytes, BsoReadOptions.INTERNED_KEYS), BsoUtils.read(ByteBuffer.allocateDirect(bytes.length).put(bytes).flip(), BsoReadOptions.INTERNED_KEYS)}) {
+            Assertions.assertEquals(records, read);
+            String first = read.get(0).properties().iterator().next().getKey();
+            String last = read.get(2).properties().iterator().next().getKey();
+            Assertions.assertSame(first, last);
+        }
+
+        // map with a NUL-terminated key, as written before keys were length-prefixed
+        BsoNode legacy = BsoUtils.read(new byte[]{0x00, 0x07, 0x01, 0x61, 'o', 'k', 0x00}, BsoReadOptions.INTERNED_KEYS);
+        Assertions.assertTrue(legacy.get("ok").asBool());
+    }
+
+    @Test
+    void keyTable() throws IOException {
+        BsoMap map = sampleMap();
+        BsoList records = new BsoList();
+        for (int i = 0; i < 500; ++i) {
+            BsoMap record = new BsoMap();
+            record.putInt("identifier", i);
+            record.putString("display_name", "record" + i);
+            records.add(record);
+        }
+        map.put("records", records);
+
+        byte[] plain = BsoUtils.toByteArray(map);
+        byte[] table = BsoUtils.toByteArray(map, BsoWriteOptions.KEY_TABLE);
+        Assertions.assertEquals(table.length, BsoUtils.encodedSize(map, BsoWriteOptions.KEY_TABLE));
+        Assertions.assertTrue(table.length < plain.length);
+        Assertions.assertEquals(map, BsoUtils.read(table));
+        Assertions.assertEquals(map, BsoUtils.readLazy(table));
+
+        Path path = this.tempDir.resolve("keys.bso");
+        BsoUtils.write(path, map, new BsoWriteOptions(BsoUtils.Endianess.LITTLE, true));
+        Assertions.assertEquals(map, BsoUtils.read(path));
+        Assertions.assertEquals(map, BsoUtils.readMapped(path));
+        try (BsoStreamReader reader = new BsoStreamReader(path)) {
+            Assertions.assertEquals(BsoToken.START_MAP, reader.nextToken());
+            Assertions.assertEquals(map, reader.readTree());
+        }
+
+        Path gz = this.tempDir.resolve("keys_gz.bso");
+        BsoUtils.writeCompressed(gz, map, BsoWriteOptions.KEY_TABLE);
+        Assertions.assertEquals(map, BsoUtils.read(gz));
+    }
+
+    @Test
+    void codecs() throws IOException {
+        BsoMap map = sampleMap();
+        byte[] noise = new byte[300_000];
+        new Random(7).nextBytes(noise);
+        map.putByteArray("noise", noise);
+        map.putString("run", "ab".repeat(200_000));
+
+        for (BsoCodec codec : new BsoCodec[]{BsoCodec.GZIP, BsoCodec.DEFLATE, BsoCodec.LZ}) {
+            for (int level : new int[]{-1, 1, 9}) {
+                BsoWriteOptions options = BsoWriteOptions.KEY_TABLE.withCodec(codec, level);
+                byte[] bytes = BsoUtils.toByteArray(map, options);
+                Assertions.assertTrue(bytes.length < BsoUtils.encodedSize(map, options));
+                assertSameDocument(map, BsoUtils.read(bytes));
+                assertSameDocument(map, BsoUtils.readLazy(bytes).copy());
+
+                Path path = this.tempDir.resolve(codec.getName() + level + ".bso");
+                BsoUtils.write(path, map, options);
+                Assertions.assertArrayEquals(bytes, Files.readAllBytes(path));
+                assertSameDocument(map, BsoUtils.readMapped(path));
+                try (BsoStreamReader reader = new BsoStreamReader(path)) {
+                    reader.nextToken();
+                    assertSameDocument(map, reader.readTree());
+                }
+            }
+        }
+
+        byte[] bytes = BsoUtils.toByteArray(map, BsoWriteOptions.DEFAULT.withCodec(BsoCodec.LZ));
+        Assertions.assertThrows(IOException.class, () -> BsoUtils.read(Arrays.copyOf(bytes, bytes.length - 16)));
+        bytes[2] = 0x7F;
+        Assertions.assertThrows(IOException.class, () -> BsoUtils.read(bytes));
+        Assertions.assertThrows(IOException.class, () -> BsoUtils.read(new byte[]{0b1000, 42}));
+    }
+
+    @Test
+    void blockCompression() throws IOException {
+        BsoMap map = sampleMap();
+        byte[] noise = new byte[300_000];
+        new Random(11).nextBytes(noise);
+        map.putByteArray("noise", noise);
+        map.putString("run", "ab".repeat(200_000));
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (BsoCodec codec : new BsoCodec[]{BsoCodec.GZIP, BsoCodec.DEFLATE, BsoCodec.LZ}) {
+                BsoWriteOptions options = BsoWriteOptions.KEY_TABLE.withCodec(codec).withExecutor(executor, 64 * 1024);
+                byte[] bytes = BsoUtils.toByteArray(map, options);
+                Assertions.assertEquals(0b1000_0000 | codec.getId(), bytes[1] & 0xFF);
+                Assertions.assertTrue(bytes.length < BsoUtils.encodedSize(map));
+                assertSameDocument(map, BsoUtils.read(bytes));
+                assertSameDocument(map, BsoUtils.read(bytes, BsoReadOptions.DEFAULT.withExecutor(Runnable::run)));
+                assertSameDocument(map, BsoUtils.read(bytes, BsoReadOptions.DEFAULT.withExecutor(null)));
+                assertSameDocument(map, BsoUtils.readLazy(bytes).copy());
+
+                Path path = this.tempDir.resolve("blocks_" + codec.getName() + ".bso");
+                BsoUtils.write(path, map, options);
+                Assertions.assertArrayEquals(bytes, Files.readAllBytes(path));
+                assertSameDocument(map, BsoUtils.read(path, BsoReadOptions.DEFAULT.withExecutor(executor)));
+                try (BsoStreamReader reader = new BsoStreamReader(path)) {
+                    reader.nextToken();
+                    assertSameDocument(map, reader.readTree());
+                }
+            }
+
+            byte[] bytes = BsoUtils.toByteArray(map, BsoWriteOptions.DEFAULT.withCodec(BsoCodec.DEFLATE).withExecutor(executor, 64 * 1024));
+            Assertions.assertThrows(IOException.class, () -> BsoUtils.read(Arrays.copyOf(bytes, bytes.length / 2)));
+            bytes[20] ^= 0x55;
+            Assertions.assertThrows(IOException.class, () -> BsoUtils.read(bytes));
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BsoWriteOptions.DEFAULT.withExecutor(Runnable::run, 0));
+    }
+
+    @Test
+    void seekableBlocks() throws IOException {
+        BsoMap map = new BsoMap();
+        Random random = new Random(3);
+        for (int i = 0; i < 8; ++i) {
+            long[] values = new long[32 * 1024];
+            for (int j = 0; j < values.length; ++j) values[j] = random.nextLong();
+            map.putLongArray("chunk" + i, values);
+        }
+        map.putString("tail", "found");
+
+        Path path = this.tempDir.resolve("seekable.bso");
+        BsoUtils.write(path, map, BsoWriteOptions.DEFAULT.withCodec(BsoCodec.LZ).withBlockSize(64 * 1024));
+        assertSameDocumentIgnoringArrays(map, BsoUtils.read(path));
+
+        Assertions.assertEquals(new BsoString("found"), BsoUtils.readField(path, "tail"));
+        Assertions.assertArrayEquals(((BsoLongArray) map.get("chunk5")).values(), ((BsoLongArray) BsoUtils.readField(path, "chunk5")).values());
+        Assertions.assertNull(BsoUtils.readField(path, "missing"));
+
+        try (BsoStreamReader reader = new BsoStreamReader(path)) {
+            Assertions.assertEquals(BsoToken.START_MAP, reader.nextToken());
+            String tail = null;
+            BsoToken token;
+            while ((token = reader.nextToken()) != BsoToken.END_MAP) {
+                if (token == BsoToken.STRING && "tail".equals(reader.currentKey())) {
+                    tail = reader.stringValue();
+                }
+            }
+            Assertions.assertEquals("found", tail);
+        }
+
+        // a block index whose first block does not start the document, or whose count overflows, is reported as corrupt
+        byte[] bytes = Files.readAllBytes(path);
+        int count = ByteBuffer.wrap(bytes).getInt(bytes.length - 8);
+        ByteBuffer.wrap(bytes).putLong(bytes.length - 16 - count * 16 + 8, 5);
+        Path corrupt = this.tempDir.resolve("seekable_corrupt.bso");
+        Files.write(corrupt, bytes);
+        Assertions.assertThrows(IOException.class, () -> BsoUtils.readField(corrupt, "tail"));
+        ByteBuffer.wrap(bytes).putInt(bytes.length - 8, Integer.MAX_VALUE);
+        Files.write(corrupt, bytes);
+        Assertions.assertThrows(IOException.class, () -> BsoUtils.readField(corrupt, "tail"));
+
+        // and so is a frame position outside the frames, or one that goes back
+        for (long framePosition : new long[]{-1, bytes.length, 0}) {
+            bytes = Files.readAllBytes(path);
+            ByteBuffer.wrap(bytes).putLong(bytes.length - 16 - count * 16 + 16, framePosition);
+            Files.write(corrupt, bytes);
+            Assertions.assertThrows(IOException.class, () -> BsoUtils.readField(corrupt, "tail"));
+        }
+    }
+
+    private static void assertSameDocumentIgnoringArrays(BsoMap expected, BsoNode actual) {
+        for (var entry : expected.properties()) {
+            BsoNode value = ((BsoMap) actual).get(entry.getKey());
+            if (entry.getValue() instanceof BsoLongArray array) {
+                Assertions.assertArrayEquals(array.values(), ((BsoLongArray) value).values());
+            } else {
+                Assertions.assertEquals(entry.getValue(), value);
+            }
+        }
+    }
+
+    @Test
+    void recordLog() throws IOException {
+        Path path = this.tempDir.resolve("events.bsor");
+        BsoRecordOptions options = BsoRecordOptions.DEFAULT.withBatchSize(512).withSync(BsoRecordOptions.Sync.ON_FLUSH);
+        List<Long> offsets = new ArrayList<>();
+
+        try (BsoRecordWriter writer = new BsoRecordWriter(path, options)) {
+            for (int i = 0; i < 500; ++i) {
+                BsoMap event = new BsoMap();
+                event.putInt("seq", i);
+                event.putString("kind", i % 3 == 0 ? "join" : "move");
+                if (i == 250) event.putString("big", "x".repeat(100_000));
+                offsets.add(writer.append(event));
+            }
+        }
+
+        try (BsoRecordReader reader = new BsoRecordReader(path)) {
+            for (int i = 0; i < 500; ++i) {
+                Assertions.assertEquals(offsets.get(i), reader.position());
+                BsoMap event = (BsoMap) reader.next();
+                Assertions.assertEquals(i, ((BsoInt) event.get("seq")).value());
+            }
+            Assertions.assertNull(reader.next());
+        }
+
+        try (BsoRecordReader reader = new BsoRecordReader(path, offsets.get(240))) {
+            for (int i = 0; i < 20; ++i) Assertions.assertTrue(reader.skip());
+            Assertions.assertEquals(offsets.get(260), reader.position());
+            Assertions.assertEquals(260, ((BsoInt) ((BsoMap) reader.next()).get("seq")).value());
+        }
+
+        long end = Files.size(path);
+        Files.write(path, new byte[]{0, 0, 1, 0, 1, 2, 3}, StandardOpenOption.APPEND);
+        try (BsoRecordReader reader = new BsoRecordReader(path, offsets.get(499))) {
+            Assertions.assertNotNull(reader.next());
+            Assertions.assertNull(reader.next());
+            Assertions.assertEquals(end, reader.position());
+        }
+
+        try (BsoRecordWriter writer = new BsoRecordWriter(path, options.withChecksums(false))) {
+            Assertions.assertEquals(end, writer.position());
+            BsoMap event = new BsoMap();
+            event.putInt("seq", 500);
+            writer.append(event);
+        }
+        try (BsoRecordReader reader = new BsoRecordReader(path, end)) {
+            Assertions.assertEquals(500, ((BsoInt) ((BsoMap) reader.next()).get("seq")).value());
+            Assertions.assertNull(reader.next());
+        }
+
+        // a record whose length reached the disk but whose payload did not is cut off when the writer reopens the log
+        long intact = Files.size(path);
+        Files.write(path, new byte[]{0, 0, 0, 16, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}, StandardOpenOption.APPEND);
+        try (BsoRecordWriter writer = new BsoRecordWriter(path, options)) {
+            Assertions.assertEquals(intact, writer.position());
+            BsoMap event = new BsoMap();
+            event.putInt("seq", 501);
+            writer.append(event);
+        }
+        try (BsoRecordReader reader = new BsoRecordReader(path, end)) {
+            Assertions.assertEquals(500, ((BsoInt) ((BsoMap) reader.next()).get("seq")).value());
+            Assertions.assertEquals(501, ((BsoInt) ((BsoMap) reader.next()).get("seq")).value());
+            Assertions.assertNull(reader.next());
+        }
+
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[(int) (offsets.get(10) + 12)] ^= 1;
+        Files.write(path, bytes);
+        try (BsoRecordReader reader = new BsoRecordReader(path, offsets.get(10))) {
+            Assertions.assertThrows(IOException.class, reader::next);
+        }
+
+        // an empty record is rejected instead of being handed to the decoder
+        Files.write(path, new byte[]{0, 0, 0, 0, 0, 0, 0, 0}, StandardOpenOption.APPEND);
+        try (BsoRecordReader reader = new BsoRecordReader(path, bytes.length)) {
+            Assertions.assertThrows(IOException.class, reader::next);
+        }
+    }
+
+    @Test
+    void pack() throws IOException {
+        Path dir = this.tempDir.resolve("assets");
+        Files.createDirectories(dir.resolve("models"));
+        for (int i = 0; i < 50; ++i) {
+            BsoMap asset = sampleMap();
+            asset.putInt("index", i);
+            BsoUtils.write(dir.resolve("models/m" + i + ".bso"), asset, i % 2 == 0 ? BsoWriteOptions.DEFAULT : BsoWriteOptions.KEY_TABLE.withCodec(BsoCodec.LZ));
+        }
+        Files.writeString(dir.resolve("readme.txt"), "not an asset");
+        Path packPath = this.tempDir.resolve("assets.bsop");
+        BsoUtils.main(new String[]{"pack", dir.toString(), packPath.toString()});
+
+        try (BsoPack pack = BsoPack.open(packPath)) {
+            Assertions.assertEquals(50, pack.size());
+            List<String> names = pack.names();
+            Assertions.assertEquals(names.stream().sorted().toList(), names);
+            for (int i = 0; i < 50; ++i) {
+                BsoMap expected = sampleMap();
+                expected.putInt("index", i);
+                Assertions.assertEquals(expected, pack.read("models/m" + i));
+                Assertions.assertEquals(expected, pack.readLazy("models/m" + i));
+            }
+            Assertions.assertFalse(pack.contains("models/m50"));
+            Assertions.assertNull(pack.read("models"));
+            Assertions.assertNull(pack.read("readme"));
+        }
+
+        Path built = this.tempDir.resolve("built.bsop");
+        try (BsoPackWriter writer = new BsoPackWriter(built)) {
+            writer.add("z", sampleMap());
+            writer.add("\u00e9t\u00e9", sampleMap());
+            writer.add("a", new BsoList());
+            Assertions.assertThrows(IllegalArgumentException.class, () -> writer.add("a", sampleMap()));
+        }
+        try (BsoPack pack = BsoPack.open(built)) {
+            Assertions.assertEquals(List.of("a", "z", "\u00e9t\u00e9"), pack.names());
+            Assertions.assertEquals(sampleMap(), pack.read("\u00e9t\u00e9"));
+            Assertions.assertEquals(new BsoList(), pack.read("a"));
+        }
+        Assertions.assertThrows(IOException.class, () -> BsoPack.open(dir.resolve("models/m0.bso")));
+    }
+
+    @Test
+    void store() throws IOException {
+        Path path = this.tempDir.resolve("world.bsos");
+        Map<String, BsoMap> expected = new HashMap<>();
+
+        try (BsoStore store = BsoStore.open(path, 4)) {
+            for (int i = 0; i < 300; ++i) {
+                BsoMap chunk = sampleMap();
+                chunk.putString("blocks", "b".repeat(i * 37));
+                store.put("chunk." + i, chunk);
+                expected.put("chunk." + i, chunk);
+            }
+            for (int i = 0; i < 300; i += 3) {
+                BsoMap chunk = sampleMap();
+                chunk.putString("blocks", "c".repeat(i % 2 == 0 ? 20_000 : 10));
+                store.put("chunk." + i, chunk, BsoWriteOptions.KEY_TABLE);
+                expected.put("chunk." + i, chunk);
+            }
+            for (int i = 1; i < 300; i += 5) {
+                Assertions.assertTrue(store.remove("chunk." + i));
+                expected.remove("chunk." + i);
+            }
+            Assertions.assertFalse(store.remove("chunk.1"));
+            Assertions.assertNull(store.get("chunk.1"));
+            Assertions.assertEquals(expected.keySet(), store.keys());
+        }
+
+        long before = Files.size(path);
+        try (BsoStore store = BsoStore.open(path)) {
+            for (var entry : expected.entrySet()) {
+                Assertions.assertEquals(entry.getValue(), store.get(entry.getKey()));
+            }
+            Assertions.assertTrue(store.freeSectors() > 0);
+            store.compactAsync(ForkJoinPool.commonPool()).join();
+            Assertions.assertEquals(0, store.freeSectors());
+        }
+
+        Assertions.assertTrue(Files.size(path) < before);
+        try (BsoStore store = BsoStore.open(path)) {
+            Assertions.assertEquals(expected.size(), store.size());
+            for (var entry : expected.entrySet()) {
+                Assertions.assertEquals(entry.getValue(), store.get(entry.getKey()));
+            }
+        }
+
+        try (BsoStore store = BsoStore.open(path)) {
+            BsoMap marked = new BsoMap();
+            marked.putString("marker", "corrupt me");
+            store.put("marked", marked);
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[new String(bytes, StandardCharsets.ISO_8859_1).indexOf("corrupt me")] ^= 1;
+        Files.write(path, bytes);
+        try (BsoStore store = BsoStore.open(path)) {
+            int failures = 0;
+            for (String key : store.keys()) {
+                try {
+                    store.get(key);
+                } catch (IOException e) {
+                    ++failures;
+                }
+            }
+            Assertions.assertEquals(1, failures);
+        }
+    }
+
+    private static void assertSameDocument(BsoMap expected, BsoNode actual) {
+        BsoMap copy = (BsoMap) actual.copy();
+        Assertions.assertArrayEquals(((BsoByteArray) expected.get("noise")).values(), ((BsoByteArray) copy.remove("noise")).values());
+        BsoMap rest = (BsoMap) expected.copy();
+        rest.remove("noise");
+        Assertions.assertEquals(rest, copy);
+    }
+
+    @Test
+    void storeTableGrowth() throws IOException {
+        // 512 slots fill two table sectors, growing to 1024 needs sectors 3 and 4, where the first documents live
+        Path path = this.tempDir.resolve("growth.bsos");
+        Map<String, BsoMap> expected = new HashMap<>();
+        try (BsoStore store = BsoStore.open(path, 512)) {
+            for (int i = 0; i < 513; ++i) {
+                BsoMap document = new BsoMap();
+                document.putInt("index", i);
+                document.putString("blocks", (char) ('a' + i % 26) + "x".repeat(i % 4 == 1 ? 18_000 : i % 7 * 1000));
+                store.put("doc." + i, document);
+                expected.put("doc." + i, document);
+            }
+            for (var entry : expected.entrySet()) {
+                Assertions.assertEquals(entry.getValue(), store.get(entry.getKey()));
+            }
+        }
+
+        try (BsoStore store = BsoStore.open(path)) {
+            Assertions.assertEquals(expected.size(), store.size());
+            for (var entry : expected.entrySet()) {
+                Assertions.assertEquals(entry.getValue(), store.get(entry.getKey()));
+            }
+            store.compact();
+            for (var entry : expected.entrySet()) {
+                Assertions.assertEquals(entry.getValue(), store.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    void streamReader() throws IOException {
+        BsoMap map = sampleMap();
+        BsoMap nested = new BsoMap();
+        nested.putIntArray("ints", new int[]{1, 2, 3});
+        nested.putDouble("ratio", 0.25);
+        map.put("nested", nested);
+
+        Path path = this.tempDir.resolve("stream.bso");
+        BsoUtils.write(path, map, BsoUtils.Endianess.LITTLE);
+
+        int entries = 0;
+        try (BsoStreamReader reader = new BsoStreamReader(path)) {
+            Assertions.assertEquals(BsoToken.START_MAP, reader.nextToken());
+
+            BsoToken token;
+            while ((token = reader.nextToken()) != BsoToken.END_MAP) {
+                ++entries;
+                switch (reader.currentKey()) {
+                    case "big" -> Assertions.assertEquals(1_000_000, reader.intValue());
+                    case "long" -> Assertions.assertEquals(Long.MIN_VALUE, reader.longValue());
+                    case "name" -> Assertions.assertEquals("Kalme", reader.stringValue());
+                    case "flag" -> Assertions.assertTrue(reader.booleanValue());
+                    case "hobbies" -> reader.skipChildren();
+                    case "nested" -> {
+                        while (reader.nextToken() != BsoToken.END_MAP) {
+                            if (reader.currentKey().equals("ratio")) Assertions.assertEquals(0.25, reader.doubleValue());
+                            if (reader.currentKey().equals("ints")) Assertions.assertArrayEquals(new int[]{1, 2, 3}, reader.nodeValue().asIntArray());
+                        }
+                    }
+                    default -> Assertions.assertNotNull(token);
+                }
+            }
+
+            Assertions.assertNull(reader.nextToken());
+        }
+        Assertions.assertEquals(map.size(), entries);
+    }
+
+    private static void writeStreamed(BsoStreamWriter writer) throws IOException {
+        writer.beginMap();
+        writer.key("name").writeString("Kalme");
+        writer.key("records").beginList();
+        for (int i = 0; i < 100_000; ++i) {
+            writer.beginMap().key("index").writeInt(i).key("even").writeBool(i % 2 == 0).endMap();
+        }
+        writer.endList();
+        writer.key("empty").beginList().endList();
+        writer.endMap();
+    }
+
+    private static void assertStreamed(BsoNode node) {
+        Assertions.assertEquals("Kalme", node.get("name").asString());
+        Assertions.assertEquals(100_000, node.get("records").size());
+        Assertions.assertEquals(99_999, node.get("records").get(99_999).get("index").asInt());
+        Assertions.assertFalse(node.get("records").get(99_999).get("even").asBool());
+        Assertions.assertTrue(node.get("empty").isEmpty());
+    }
+
+    @Test
+    void streamWriter() throws IOException {
+        Path seekable = this.tempDir.resolve("streamed_seekable.bso");
+        try (BsoStreamWriter writer = new BsoStreamWriter(seekable, BsoUtils.Endianess.LITTLE)) {
+            writeStreamed(writer);
+        }
+        assertStreamed(BsoUtils.read(seekable));
+
+        Path terminated = this.tempDir.resolve("streamed_terminated.bso");
+        try (BsoStreamWriter writer = new BsoStreamWriter(Files.newOutputStream(terminated))) {
+            writeStreamed(writer);
+        }
+        assertStreamed(BsoUtils.read(terminated));
+        assertStreamed(BsoUtils.readLazy(terminated));
+        Assertions.assertEquals(BsoUtils.read(seekable), BsoUtils.read(terminated));
+
+        int records = 0;
+        try (BsoStreamReader reader = new BsoStreamReader(terminated)) {
+            BsoToken token;
+            while ((token = reader.nextToken()) != null) {
+                if (token == BsoToken.START_MAP && reader.depth() == 3) {
+                    ++records;
+                    reader.skipChildren();
+                }
+            }
+        }
+        Assertions.assertEquals(100_000, records);
+
+        // a missing key is rejected before anything reaches the document
+        Path recovered = this.tempDir.resolve("streamed_recovered.bso");
+        try (BsoStreamWriter writer = new BsoStreamWriter(Files.newOutputStream(recovered))) {
+            writer.beginMap();
+            Assertions.assertThrows(IllegalStateException.class, () -> writer.writeInt(1));
+            writer.key("kept").writeInt(2);
+            writer.endMap();
+        }
+        BsoMap expected = new BsoMap();
+        expected.putInt("kept", 2);
+        Assertions.assertEquals(expected, BsoUtils.read(recovered));
+
+        // only terminated maps and lists end at a zero adid, a length-prefixed one reaching it is corrupt
+        BsoList list = new BsoList();
+        list.addInt(7);
+        list.addInt(7);
+        list.addInt(7);
+        byte[] bytes = BsoUtils.toByteArray(list);
+        bytes[bytes.length - 2] = 0;
+        Assertions.assertThrows(IOException.class, () -> BsoUtils.read(bytes));
+        Assertions.assertThrows(UncheckedIOException.class, () -> BsoUtils.readLazy(bytes).get(2));
+
+        // arrays have no terminated form, so the length bits 0b0110 are corrupt for them
+        BsoMap arrays = new BsoMap();
+        arrays.putIntArray("values", new int[]{1, 2});
+        arrays.putInt("after", 3);
+        byte[] arrayBytes = BsoUtils.toByteArray(arrays);
+        int adid = 0;
+        while (arrayBytes[adid] != 0b1011) ++adid;
+        arrayBytes[adid] = 0b0110_1011;
+        Assertions.assertThrows(IOException.class, () -> BsoUtils.read(arrayBytes));
+        Path corrupt = this.tempDir.resolve("corrupt_array.bso");
+        Files.write(corrupt, arrayBytes);
+        Assertions.assertThrows(IOException.class, () -> BsoUtils.readField(corrupt, "after"));
+    }
+
+    @Test
+    void fieldIndex() throws IOException {
+        BsoMap map = sampleMap();
+        BsoMap server = new BsoMap();
+        server.putString("host", "localhost");
+        server.putInt("port", 8080);
+        map.put("server", server);
+
+        Path path = this.tempDir.resolve("fields.bso");
+        for (BsoWriteOptions options : new BsoWriteOptions[]{
+                BsoWriteOptions.DEFAULT.withFieldIndex(1),
+                new BsoWriteOptions(BsoUtils.Endianess.LITTLE, true).withFieldIndex(2),
+                BsoWriteOptions.KEY_TABLE.withFieldIndex(2).withCodec(BsoCodec.LZ).withBlockSize(4096),
+                BsoWriteOptions.DEFAULT.withFieldIndex(1).withCodec(BsoCodec.GZIP),
+                BsoWriteOptions.KEY_TABLE}) {
+            BsoUtils.write(path, map, options);
+            Assertions.assertEquals(map, BsoUtils.read(path));
+            Assertions.assertEquals(map, BsoUtils.readLazy(path).copy());
+            if (options.codec() == null) {
+                Assertions.assertEquals(BsoUtils.encodedSize(map, options), Files.size(path));
+            }
+
+            for (var entry : map.properties()) {
+                Assertions.assertEquals(entry.getValue(), BsoUtils.readField(path, entry.getKey()));
+            }
+            Assertions.assertEquals(new BsoInt(8080), BsoUtils.readField(path, "server", "port"));
+            Assertions.assertNull(BsoUtils.readField(path, "server", "missing"));
+            Assertions.assertNull(BsoUtils.readField(path, "name", "host"));
+            Assertions.assertNull(BsoUtils.readField(path, "missing"));
+        }
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BsoWriteOptions.DEFAULT.withFieldIndex(3));
+        BsoUtils.write(path, new BsoList(), BsoWriteOptions.DEFAULT.withFieldIndex(1));
+        Assertions.assertNull(BsoUtils.readField(path, "name"));
+    }
+
+    @Test
+    void projection() throws IOException {
+        BsoMap map = sampleMap();
+        BsoList players = new BsoList();
+        for (int i = 0; i < 3; ++i) {
+            BsoMap player = new BsoMap();
+            player.putString("name", "player" + i);
+            player.putIntArray("inventory", new int[1000]);
+            players.add(player);
+        }
+        players.addString("not a player");
+        map.put("players", players);
+        BsoMap meta = new BsoMap();
+        meta.putInt("version", 3);
+        meta.putString("author", "Kalme");
+        map.put("meta", meta);
+
+        BsoMap expected = new BsoMap();
+        BsoList names = new BsoList();
+        for (int i = 0; i < 3; ++i) {
+            BsoMap player = new BsoMap();
+            player.putString("name", "player" + i);
+            names.add(player);
+        }
+        expected.put("players", names);
+        BsoMap version = new BsoMap();
+        version.putInt("version", 3);
+        expected.put("meta", version);
+        expected.putString("name", "Kalme");
+
+        Path path = this.tempDir.resolve("projection.bso");
+        BsoProjection projection = BsoProjection.of("players[*].name", "meta.version", "name", "name.first", "missing.key");
+        for (BsoWriteOptions options : new BsoWriteOptions[]{BsoWriteOptions.DEFAULT, new BsoWriteOptions(BsoUtils.Endianess.LITTLE, true), BsoWriteOptions.DEFAULT.withCodec(BsoCodec.LZ).withBlockSize(4096)}) {
+            BsoUtils.write(path, map, options);
+            Assertions.assertEquals(expected, BsoUtils.read(path, projection));
+            Assertions.assertEquals(meta, ((BsoMap) BsoUtils.read(path, BsoProjection.of("meta", "meta.version"))).get("meta"));
+            Assertions.assertEquals(new BsoMap(), BsoUtils.read(path, BsoProjection.of("absent")));
+        }
+
+        BsoMap whole = (BsoMap) BsoUtils.read(path, BsoProjection.of(""));
+        Assertions.assertEquals(map.properties().size(), whole.properties().size());
+        Assertions.assertEquals(meta, whole.get("meta"));
+        for (String invalid : new String[]{".a", "a..b", "a[0]", "a.[*]", "a."}) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> BsoProjection.of(invalid), invalid);
+        }
+    }
+
+    @Test
+    void readInto() throws IOException {
+        BsoMap payload = sampleMap();
+        payload.putIntArray("position", new int[]{1, 2, 3});
+        payload.putDouble("speed", 0.5);
+
+        BsoNode target = BsoUtils.read(BsoUtils.toByteArray(payload));
+        BsoNode name = target.get("name");
+        int[] position = ((BsoIntArray) target.get("position")).values();
+        BsoNode hobbies = target.get("hobbies");
+
+        payload.putIntArray("position", new int[]{4, 5, 6});
+        payload.putDouble("speed", 0.75);
+        for (BsoWriteOptions options : new BsoWriteOptions[]{BsoWriteOptions.DEFAULT, new BsoWriteOptions(BsoUtils.Endianess.LITTLE, true), BsoWriteOptions.DEFAULT.withCodec(BsoCodec.LZ)}) {
+            Assertions.assertSame(target, BsoUtils.readInto(BsoUtils.toByteArray(payload, options), target));
+            Assertions.assertSame(name, target.get("name"));
+            Assertions.assertSame(hobbies, target.get("hobbies"));
+            Assertions.assertSame(position, ((BsoIntArray) target.get("position")).values());
+            Assertions.assertArrayEquals(new int[]{4, 5, 6}, position);
+            Assertions.assertEquals(new BsoDouble(0.75), target.get("speed"));
+        }
+
+        // a payload of another shape still decodes to exactly that payload
+        payload.remove("name");
+        payload.remove("position");
+        payload.putString("flag", "now a string");
+        payload.putString("added", "new");
+        BsoList shorter = new BsoList();
+        shorter.addString("coding");
+        payload.put("hobbies", shorter);
+        Assertions.assertSame(target, BsoUtils.readInto(BsoUtils.toByteArray(payload), target));
+        Assertions.assertEquals(payload, target);
+        Assertions.assertSame(hobbies, target.get("hobbies"));
+
+        BsoList list = new BsoList();
+        list.addInt(1);
+        Assertions.assertEquals(list, BsoUtils.readInto(BsoUtils.toByteArray(list), target));
+        Assertions.assertEquals(payload, BsoUtils.readInto(BsoUtils.toByteArray(payload), new BsoMap()));
+    }
+
+    @Test
+    void cachedScalars() throws IOException {
+        BsoMap map = new BsoMap();
+        map.put("flag", BsoBool.of(true));
+        map.putByte("byte", -100);
+        map.putUByte("ubyte", 200);
+        map.putShort("short", 7);
+        map.putUShort("ushort", 65535);
+        map.putInt("int", -1);
+        map.putUInt("uint", 255);
+        map.putLong("long", 127);
+        map.putULong("ulong", -1L);
+        map.putUShortArray("ushorts", new short[]{1});
+        map.putInt("big", 1_000_000);
+
+        BsoMap read = (BsoMap) BsoUtils.read(BsoUtils.toByteArray(map));
+        Assertions.assertSame(BsoBool.TRUE, read.get("flag"));
+        for (String key : new String[]{"byte", "ubyte", "short", "int", "uint", "long"}) {
+            Assertions.assertSame(map.get(key), read.get(key), key);
+        }
+        Assertions.assertEquals(map.get("big"), read.get("big"));
+        Assertions.assertNotSame(map.get("big"), read.get("big"));
+
+        Assertions.assertEquals(new BsoUShort((short) -1), map.get("ushort"));
+        Assertions.assertEquals(new BsoULong(-1L), map.get("ulong"));
+        Assertions.assertTrue(map.get("ushorts") instanceof BsoUShortArray);
+        Assertions.assertEquals(new BsoUShort((short) -1), read.get("ushort"));
+        Assertions.assertEquals(new BsoULong(-1L), read.get("ulong"));
+    }
+
+    @Test
+    void compactMap() throws IOException {
+        Map<String, BsoNode> expected = new HashMap<>();
+        BsoMap map = new BsoMap();
+        for (int i = 0; i < 64; ++i) {
+            map.put("k" + i, BsoInt.of(i));
+            expected.put("k" + i, BsoInt.of(i));
+            map.put("k" + i, BsoInt.of(i));
+            Assertions.assertEquals(expected, entries(map));
+            Assertions.assertEquals(expected.size(), map.size());
+        }
+        Assertions.assertEquals(map, BsoUtils.read(BsoUtils.toByteArray(map)));
+
+        BsoMap small = new BsoMap();
+        small.putInt("a", 1);
+        small.putInt("b", 2);
+        small.putInt("c", 3);
+        Assertions.assertEquals(List.of("a", "b", "c"), keys(small));
+        small.properties().removeIf(e -> e.getKey().equals("b"));
+        Assertions.assertEquals(List.of("a", "c"), keys(small));
+        small.properties().iterator().next().setValue(BsoInt.of(9));
+        Assertions.assertEquals(BsoInt.of(9), small.get("a"));
+        small.remove("a");
+        Assertions.assertFalse(small.has("a"));
+        Assertions.assertEquals(List.of("c"), keys(small));
+        Assertions.assertThrows(ConcurrentModificationException.class, () -> {
+            for (var entry : small.properties()) small.putInt(entry.getKey() + "x", 0);
+        });
+
+        BsoMap document = sampleMap();
+        for (int i = 0; i < 20; ++i) document.putInt("extra" + i, i);
+        Assertions.assertEquals(document, BsoUtils.read(BsoUtils.toByteArray(document)));
+        Assertions.assertEquals(document, document.copy());
+    }
+
+    private static Map<String, BsoNode> entries(BsoNode map) {
+        Map<String, BsoNode> entries = new HashMap<>();
+        for (var entry : map.properties()) entries.put(entry.getKey(), entry.getValue());
+        return entries;
+    }
+
+    private static List<String> keys(BsoNode map) {
+        return map.properties().stream().map(Map.Entry::getKey).toList();
+    }
+
+    private static List<BsoNode> elements(BsoNode list) {
+        List<BsoNode> elements = new ArrayList<>();
+        for (BsoNode element : list) elements.add(element);
+        return elements;
+    }
+
+    @Test
+    void sharedShapes() throws IOException {
+        BsoList records = new BsoList();
+        for (int i = 0; i < 10; ++i) {
+            BsoMap record = new BsoMap();
+            record.putInt("id", i);
+            record.putString("name", "n" + i);
+            record.put("active", i % 2 == 0 ? BsoBool.TRUE : BsoBool.FALSE);
+            records.add(record);
+        }
+
+        byte[] bytes = BsoUtils.toByteArray(records);
+        BsoList decoded = (BsoList) BsoUtils.read(bytes);
+        Assertions.assertEquals(records, decoded);
+        for (BsoNode record : decoded) {
+            Assertions.assertEquals(List.of("id", "name", "active"), keys(record));
+        }
+
+        BsoMap changed = (BsoMap) decoded.get(1);
+        changed.remove("name");
+        changed.putString("name", "renamed");
+        Assertions.assertEquals(List.of("id", "active", "name"), keys(changed));
+        Assertions.assertEquals(new BsoString("renamed"), changed.get("name"));
+        Assertions.assertEquals(List.of("id", "name", "active"), keys(decoded.get(2)));
+        Assertions.assertEquals(List.of("id", "name", "active"), keys(BsoUtils.read(bytes).get(1)));
+
+        // maps keep working after "x" has been followed by more different keys than a layout shares
+        BsoList branches = new BsoList();
+        BsoList trimmed = new BsoList();
+        BsoMap mixed = new BsoMap();
+        mixed.putInt("x", 1);
+        mixed.putInt("y", 2);
+        mixed.putInt("z", 3);
+        branches.add(mixed);
+        BsoMap mixedTrimmed = new BsoMap();
+        mixedTrimmed.putInt("x", 1);
+        mixedTrimmed.putInt("z", 3);
+        trimmed.add(mixedTrimmed);
+        for (int i = 0; i < 100; ++i) {
+            BsoMap branch = new BsoMap();
+            branch.putInt("x", i);
+            branch.putInt("k" + i, i);
+            branches.add(branch);
+            trimmed.add(branch);
+        }
+
+        BsoNode target = BsoUtils.read(BsoUtils.toByteArray(branches));
+        Assertions.assertSame(target, BsoUtils.readInto(BsoUtils.toByteArray(trimmed), target));
+        Assertions.assertEquals(trimmed, target);
+
+        for (BsoNode branch : (BsoList) BsoUtils.read(BsoUtils.toByteArray(branches))) {
+            branch.properties().removeIf(e -> !e.getKey().equals("x"));
+            Assertions.assertEquals(1, branch.size());
+            Assertions.assertTrue(branch.has("x"));
+            branch.put("w", BsoInt.of(0));
+            Assertions.assertEquals(BsoInt.of(0), branch.get("w"));
+        }
+    }
+
+    @Test
+    void freeze() throws IOException {
+        BsoMap source = sampleMap();
+        BsoMap nested = new BsoMap();
+        nested.putInt("depth", 1);
+        BsoList entries = new BsoList();
+        entries.add(nested);
+        source.put("entries", entries);
+
+        BsoMap frozen = source.freeze();
+        Assertions.assertTrue(frozen.isFrozen());
+        Assertions.assertFalse(source.isFrozen());
+        Assertions.assertSame(frozen, frozen.copy());
+        Assertions.assertSame(frozen, frozen.freeze());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> frozen.putInt("x", 1));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> ((BsoList) frozen.get("entries")).addInt(1));
+        source.putInt("x", 1);
+        Assertions.assertFalse(frozen.has("x"));
+        Assertions.assertArrayEquals(BsoUtils.toByteArray(frozen), BsoUtils.toByteArray(frozen.thaw()));
+
+        BsoMap thawed = frozen.thaw();
+        Assertions.assertFalse(thawed.isFrozen());
+        BsoList thawedEntries = (BsoList) thawed.get("entries");
+        Assertions.assertFalse(thawedEntries.isFrozen());
+        Assertions.assertSame(thawedEntries, thawed.get("entries"));
+        thawedEntries.get(0).put("depth", BsoInt.of(2));
+        thawed.putInt("y", 2);
+        Assertions.assertEquals(BsoInt.of(2), thawed.path("entries").path(0).get("depth"));
+        Assertions.assertEquals(BsoInt.of(1), frozen.path("entries").path(0).get("depth"));
+        Assertions.assertFalse(frozen.has("y"));
+
+        // untouched frozen children stay shared with the frozen tree
+        BsoMap other = frozen.thaw();
+        other.putInt("z", 3);
+        Assertions.assertSame(frozen.get("hobbies"), other.freeze().get("hobbies"));
+
+        // copying a thawed tree keeps thawing the frozen children it still shares
+        BsoMap copied = frozen.thaw().copy();
+        ((BsoList) copied.get("entries")).get(0).put("depth", BsoInt.of(4));
+        Assertions.assertEquals(BsoInt.of(4), copied.path("entries").path(0).get("depth"));
+        Assertions.assertEquals(BsoInt.of(1), frozen.path("entries").path(0).get("depth"));
+
+        // arrays are copied when their level is thawed, and when they are frozen
+        BsoMap arrays = new BsoMap();
+        arrays.putIntArray("values", new int[]{1, 2, 3});
+        BsoMap frozenArrays = arrays.freeze();
+        BsoMap thawedArrays = frozenArrays.thaw();
+        thawedArrays.get("values").asIntArray()[0] = 9;
+        Assertions.assertEquals(1, arrays.get("values").asIntArray()[0]);
+        arrays.get("values").asIntArray()[1] = 8;
+        Assertions.assertEquals(2, frozenArrays.get("values").asIntArray()[1]);
+
+        // iterating a thawed tree hands out editable children too, and writing one out does not thaw it
+        BsoMap written = frozen.thaw();
+        Assertions.assertArrayEquals(BsoUtils.toByteArray(frozen), BsoUtils.toByteArray(written));
+        Assertions.assertSame(frozen.get("entries"), written.freeze().get("entries"));
+        BsoMap iterated = frozen.thaw();
+        for (var entry : iterated.properties()) {
+            if (entry.getValue() instanceof BsoList list) {
+                for (BsoNode element : list) {
+                    element.put("depth", BsoInt.of(3));
+                }
+                list.addInt(4);
+            }
+        }
+        for (BsoNode value : iterated) {
+            if (value instanceof BsoList list) list.addInt(5);
+        }
+        Assertions.assertEquals(BsoInt.of(3), iterated.path("entries").path(0).get("depth"));
+        Assertions.assertEquals(3, iterated.get("entries").size());
+        Assertions.assertEquals(4, iterated.get("hobbies").size());
+        Assertions.assertEquals(BsoInt.of(1), frozen.path("entries").path(0).get("depth"));
+        Assertions.assertEquals(1, frozen.get("entries").size());
+
+        // frozen nodes are not refilled in place
+        BsoNode decoded = BsoUtils.readInto(BsoUtils.toByteArray(source), frozen);
+        Assertions.assertNotSame(frozen, decoded);
+        Assertions.assertFalse(frozen.has("x"));
+    }
+
+    @Test
+    void persistent() throws IOException {
+        Random random = new Random(25);
+        Map<String, BsoNode> expectedMap = new HashMap<>();
+        List<BsoNode> expectedList = new ArrayList<>();
+        BsoMap map = new BsoMap();
+        BsoList list = new BsoList();
+        for (int i = 0; i < 5000; ++i) {
+            // "Aa" and "BB" share a hash code
+            String key = random.nextInt(10) == 0 ? (random.nextBoolean() ? "Aa" : "BB") : "k" + random.nextInt(1500);
+            if (random.nextInt(4) == 0) {
+                map = map.without(key);
+                expectedMap.remove(key);
+            } else {
+                map = map.with(key, BsoInt.of(i));
+                expectedMap.put(key, BsoInt.of(i));
+            }
+
+            int op = random.nextInt(8);
+            if (op == 0 && !expectedList.isEmpty()) {
+                int index = random.nextInt(expectedList.size());
+                list = list.with(index, BsoInt.of(i));
+                expectedList.set(index, BsoInt.of(i));
+            } else if (op == 1 && !expectedList.isEmpty()) {
+                list = list.withoutLast();
+                expectedList.remove(expectedList.size() - 1);
+            } else {
+                list = list.withAdded(BsoInt.of(i));
+                expectedList.add(BsoInt.of(i));
+            }
+        }
+        Assertions.assertEquals(expectedMap, entries(map));
+        Assertions.assertEquals(expectedMap.size(), map.size());
+        Assertions.assertEquals(expectedList, elements(list));
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> new BsoList().withoutLast());
+        Assertions.assertTrue(map.isFrozen());
+        Assertions.assertTrue(list.isFrozen());
+
+        // older versions are left untouched
+        BsoMap before = map;
+        BsoMap after = map.with("Aa", new BsoString("changed")).without("k0");
+        Assertions.assertEquals(expectedMap, entries(before));
+        Assertions.assertEquals(new BsoString("changed"), after.get("Aa"));
+        Assertions.assertFalse(after.has("k0"));
+        Assertions.assertSame(map, map.without("missing"));
+
+        BsoMap document = sampleMap().with("numbers", list).with("nested", map);
+        Assertions.assertEquals(document, BsoUtils.read(BsoUtils.toByteArray(document)));
+        BsoMap thawed = document.thaw();
+        Assertions.assertEquals(SBsoUtils.stringify(thawed), SBsoUtils.stringify(document));
+        thawed.putInt("added", 1);
+        Assertions.assertFalse(document.has("added"));
+        Assertions.assertEquals(document.get("nested"), thawed.get("nested"));
+    }
 }
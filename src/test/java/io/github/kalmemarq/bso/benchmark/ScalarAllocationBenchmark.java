@@ -0,0 +1,49 @@
+package io.github.kalmemarq.bso.benchmark;
+
+import io.github.kalmemarq.bso.BsoBool;
+import io.github.kalmemarq.bso.BsoList;
+import io.github.kalmemarq.bso.BsoMap;
+import io.github.kalmemarq.bso.BsoNode;
+import io.github.kalmemarq.bso.BsoUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Flags and small counters, the values served from the scalar caches. Run with -prof gc and compare gc.alloc.rate.norm,
+// the bytes allocated per decoded document.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScalarAllocationBenchmark {
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        BsoList slots = new BsoList();
+        for (int i = 0; i < 1_000; ++i) {
+            BsoMap slot = new BsoMap();
+            slot.put("enabled", BsoBool.of(i % 2 == 0));
+            slot.put("locked", BsoBool.of(i % 5 == 0));
+            slot.putByte("kind", i % 4);
+            slot.putUByte("flags", i % 16);
+            slot.putShort("level", i % 100);
+            slot.putInt("count", i % 64);
+            slot.putInt("durability", 100);
+            slot.putUInt("owner", i % 8);
+            slots.add(slot);
+        }
+
+        BsoMap tree = new BsoMap();
+        tree.put("slots", slots);
+        this.encoded = BsoUtils.toByteArray(tree);
+    }
+
+    @Benchmark
+    public BsoNode decode() throws IOException {
+        return BsoUtils.read(this.encoded);
+    }
+}
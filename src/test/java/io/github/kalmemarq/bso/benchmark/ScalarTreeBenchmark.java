@@ -0,0 +1,59 @@
+package io.github.kalmemarq.bso.benchmark;
+
+import io.github.kalmemarq.bso.BsoBool;
+import io.github.kalmemarq.bso.BsoList;
+import io.github.kalmemarq.bso.BsoMap;
+import io.github.kalmemarq.bso.BsoNode;
+import io.github.kalmemarq.bso.BsoUtils;
+import io.github.kalmemarq.bso.BsoWriteOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScalarTreeBenchmark {
+    @Param({"false", "true"})
+    public boolean keyTable;
+
+    private BsoWriteOptions options;
+    private BsoMap tree;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        BsoList records = new BsoList();
+        for (int i = 0; i < 10_000; ++i) {
+            BsoMap record = new BsoMap();
+            record.putInt("id", i);
+            record.putByte("kind", i % 7);
+            record.putShort("level", i % 300);
+            record.putUByte("flags", i & 0xFF);
+            record.putLong("time", 1_700_000_000L + i);
+            record.putFloat("x", i * 0.5f);
+            record.put("alive", BsoBool.of(i % 3 == 0));
+            record.putInt("hp", 20);
+            records.add(record);
+        }
+
+        this.tree = new BsoMap();
+        this.tree.put("records", records);
+        this.options = this.keyTable ? BsoWriteOptions.KEY_TABLE : BsoWriteOptions.DEFAULT;
+        this.encoded = BsoUtils.toByteArray(this.tree, this.options);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return BsoUtils.toByteArray(this.tree, this.options);
+    }
+
+    @Benchmark
+    public BsoNode decode() throws IOException {
+        return BsoUtils.read(this.encoded);
+    }
+}